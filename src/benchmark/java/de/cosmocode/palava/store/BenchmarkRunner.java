@@ -0,0 +1,157 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the benchmarks and compares their scores against a committed baseline.
+ *
+ * <p>
+ *   The baseline is a properties file mapping each benchmark and its parameter values
+ *   to its score, configured by the system property {@code benchmark.baseline}. A result
+ *   is a regression if it is worse than the baseline by more than the relative tolerance
+ *   {@code benchmark.tolerance}, i.e. a lower score in {@link Mode#Throughput} and a higher
+ *   one in all other modes. Regressions fail the run with exit code 1, benchmarks without
+ *   a baseline are only reported. Setting {@code benchmark.update} to true writes the
+ *   current scores as new baseline instead.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class BenchmarkRunner {
+
+    private static final String DEFAULT_BASELINE = "src/benchmark/baseline.properties";
+
+    private static final double DEFAULT_TOLERANCE = 0.2;
+
+    private BenchmarkRunner() {
+
+    }
+
+    /**
+     * Runs the benchmarks selected by the given JMH command line.
+     *
+     * @param args the JMH command line
+     * @throws Exception if running the benchmarks failed
+     */
+    public static void main(String[] args) throws Exception {
+        final File baseline = new File(System.getProperty("benchmark.baseline", DEFAULT_BASELINE));
+        final double tolerance = Double.parseDouble(
+            System.getProperty("benchmark.tolerance", String.valueOf(DEFAULT_TOLERANCE)));
+        final boolean update = Boolean.getBoolean("benchmark.update");
+
+        final Collection<RunResult> results = new Runner(new CommandLineOptions(args)).run();
+        final Map<String, RunResult> scores = Maps.newTreeMap();
+        for (RunResult result : results) {
+            scores.put(keyOf(result.getParams()), result);
+        }
+
+        if (update) {
+            write(baseline, scores);
+        } else if (compare(read(baseline), scores, tolerance) > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the baseline key of a benchmark, its simple class and method name followed by
+     * its parameter values in the order of their names.
+     */
+    private static String keyOf(BenchmarkParams params) {
+        final String benchmark = params.getBenchmark();
+        final int method = benchmark.lastIndexOf('.');
+        final StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1));
+        for (String name : params.getParamsKeys()) {
+            key.append('/').append(params.getParam(name));
+        }
+        return key.toString();
+    }
+
+    private static int compare(Properties baseline, Map<String, RunResult> scores, double tolerance) {
+        int regressions = 0;
+        for (Map.Entry<String, RunResult> entry : scores.entrySet()) {
+            final Result<?> result = entry.getValue().getPrimaryResult();
+            final double score = result.getScore();
+            final String expected = baseline.getProperty(entry.getKey());
+            if (expected == null) {
+                System.out.printf("NEW  %s %.3f %s%n", entry.getKey(), score, result.getScoreUnit());
+                continue;
+            }
+            final double reference = Double.parseDouble(expected);
+            final double change = (score - reference) / reference;
+            final boolean higherIsBetter = entry.getValue().getParams().getMode() == Mode.Throughput;
+            final boolean regressed = higherIsBetter ? change < -tolerance : change > tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%s %s %.3f %s (baseline %.3f, %+.1f%%)%n", regressed ? "FAIL" : "OK  ",
+                entry.getKey(), score, result.getScoreUnit(), reference, change * 100);
+        }
+        System.out.printf("%s of %s benchmarks regressed by more than %.0f%%%n",
+            regressions, scores.size(), tolerance * 100);
+        return regressions;
+    }
+
+    private static Properties read(File file) throws IOException {
+        final Properties properties = new Properties();
+        if (!file.exists()) {
+            System.out.printf("No baseline at %s%n", file);
+            return properties;
+        }
+        final InputStream stream = new FileInputStream(file);
+        try {
+            properties.load(stream);
+        } finally {
+            stream.close();
+        }
+        return properties;
+    }
+
+    private static void write(File file, Map<String, RunResult> scores) throws IOException {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, RunResult> entry : scores.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue().getPrimaryResult().getScore()));
+        }
+        final OutputStream stream = new FileOutputStream(file);
+        try {
+            properties.store(stream, "Benchmark baseline, see BenchmarkRunner");
+        } finally {
+            stream.close();
+        }
+        System.out.printf("Wrote %s scores to %s%n", scores.size(), file);
+    }
+
+}
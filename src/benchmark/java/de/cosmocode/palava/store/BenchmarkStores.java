@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Shared setup of the store benchmarks.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class BenchmarkStores {
+
+    /**
+     * The layouts available as {@code layout} parameter.
+     */
+    static final String DEFAULT = "default";
+
+    static final String HASH = "hash";
+
+    private BenchmarkStores() {
+
+    }
+
+    /**
+     * Creates a store in a new temporary directory.
+     *
+     * @param layout the name of the layout, {@link #DEFAULT} or {@link #HASH}
+     * @return a new store
+     * @throws IOException if creating the directory failed
+     */
+    static FileSystemStore create(String layout) throws IOException {
+        final File directory = Files.createTempDirectory("store-benchmark").toFile();
+        final FileSystemStore store = new FileSystemStore(directory);
+        store.setFileIdentifier(toFileIdentifier(layout));
+        return store;
+    }
+
+    private static FileIdentifier toFileIdentifier(String layout) {
+        if (DEFAULT.equals(layout)) {
+            return new DefaultFileIdentifier();
+        } else if (HASH.equals(layout)) {
+            return new HashFileIdentifier(2, 256);
+        } else {
+            throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+
+    /**
+     * Creates the given number of random blobs.
+     *
+     * @param store the store
+     * @param count the number of blobs
+     * @param size the size of every blob
+     * @return the identifiers of the created blobs
+     * @throws IOException if creating failed
+     */
+    static List<String> fill(FileSystemStore store, int count, int size) throws IOException {
+        final byte[] data = randomBytes(size);
+        final List<String> identifiers = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            identifiers.add(store.create(new ByteArrayInputStream(data)));
+        }
+        return identifiers;
+    }
+
+    static byte[] randomBytes(int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Disposes the given store and deletes its directory.
+     *
+     * @param store the store, may be null
+     * @throws IOException if deleting failed
+     */
+    static void destroy(FileSystemStore store) throws IOException {
+        if (store == null) return;
+        store.dispose();
+        FileUtils.deleteDirectory(store.getDirectory());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Measures {@link FileSystemStore#create(java.io.InputStream)} at different blob sizes,
+ * layouts, with or without unix permissions and owner and from memory or from a file.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CreateBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    @Param({BenchmarkStores.DEFAULT, BenchmarkStores.HASH})
+    private String layout;
+
+    @Param({"false", "true"})
+    private boolean attributes;
+
+    @Param({"NONE", "FILE"})
+    private Durability durability;
+
+    @Param({"false", "true"})
+    private boolean fromFile;
+
+    private byte[] data;
+
+    private File source;
+
+    private FileSystemStore store;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        data = BenchmarkStores.randomBytes(size);
+        if (fromFile) {
+            source = File.createTempFile("benchmark", ".bin");
+            Files.write(data, source);
+        }
+        store = BenchmarkStores.create(layout);
+        store.setDurability(durability);
+        if (attributes) {
+            store.setUnixOwner(System.getProperty("user.name"));
+            store.setUnixPermissions("rw-r-----");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkStores.destroy(store);
+        if (source != null && !source.delete()) {
+            throw new IOException("Unable to delete " + source);
+        }
+    }
+
+    @Benchmark
+    public String create() throws IOException {
+        final InputStream stream = fromFile ? new FileInputStream(source) : new ByteArrayInputStream(data);
+        try {
+            return store.create(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FileSystemStore#delete(String)} including the pruning of empty
+ * parent directories, and {@link FileSystemStore#deleteAll(Iterable)}. Every
+ * iteration deletes a freshly filled store completely, so the last deletes of
+ * every shard directory pay for pruning.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DeleteBenchmark {
+
+    private static final int BLOBS = 10000;
+
+    @Param({BenchmarkStores.DEFAULT, BenchmarkStores.HASH})
+    private String layout;
+
+    private FileSystemStore store;
+
+    private List<String> identifiers;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        store = BenchmarkStores.create(layout);
+        identifiers = BenchmarkStores.fill(store, BLOBS, 1024);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkStores.destroy(store);
+    }
+
+    @Benchmark
+    public void delete() throws IOException {
+        for (String identifier : identifiers) {
+            store.delete(identifier);
+        }
+    }
+
+    @Benchmark
+    public BatchResult deleteAll() throws IOException {
+        return store.deleteAll(identifiers);
+    }
+
+}
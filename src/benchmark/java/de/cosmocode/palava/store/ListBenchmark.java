@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link FileSystemStore#list()} and paged listing on large stores,
+ * by walking the directory tree and using the identifier index.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ListBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int entries;
+
+    @Param({BenchmarkStores.DEFAULT, BenchmarkStores.HASH})
+    private String layout;
+
+    @Param({"false", "true"})
+    private boolean indexed;
+
+    private FileSystemStore store;
+
+    @Setup
+    public void setUp() throws IOException {
+        store = BenchmarkStores.create(layout);
+        store.setIndexed(indexed);
+        BenchmarkStores.fill(store, entries, 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkStores.destroy(store);
+    }
+
+    @Benchmark
+    public Set<String> list() throws IOException {
+        return store.list();
+    }
+
+    @Benchmark
+    public int listPages() throws IOException {
+        int count = 0;
+        String token = null;
+        do {
+            final IdentifierPage page = store.list(null, token, 1000);
+            count += page.getIdentifiers().size();
+            token = page.getToken();
+        } while (token != null);
+        return count;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a concurrent mixed workload of creates, views and deletes on a shared
+ * store. Deleters remove identifiers created by the writers, so the store size
+ * stays roughly constant.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class MixedBenchmark {
+
+    private static final int BLOBS = 1000;
+
+    @Param({"4096"})
+    private int size;
+
+    @Param({BenchmarkStores.DEFAULT, BenchmarkStores.HASH})
+    private String layout;
+
+    private byte[] data;
+
+    private FileSystemStore store;
+
+    private List<String> readable;
+
+    private final Queue<String> created = new ConcurrentLinkedQueue<String>();
+
+    @Setup
+    public void setUp() throws IOException {
+        data = BenchmarkStores.randomBytes(size);
+        store = BenchmarkStores.create(layout);
+        readable = BenchmarkStores.fill(store, BLOBS, size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkStores.destroy(store);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void create() throws IOException {
+        created.add(store.create(new ByteArrayInputStream(data)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public ByteBuffer view() throws IOException {
+        return store.view(readable.get(ThreadLocalRandom.current().nextInt(BLOBS)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean delete() throws IOException {
+        final String identifier = created.poll();
+        if (identifier == null) return false;
+        store.delete(identifier);
+        return true;
+    }
+
+}
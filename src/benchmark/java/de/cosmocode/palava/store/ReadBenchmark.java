@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures read throughput using {@link FileSystemStore#view(String)}, ranged views and
+ * ranged streams, with and without the view cache.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadBenchmark {
+
+    private static final int BLOBS = 1000;
+
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    @Param({BenchmarkStores.DEFAULT, BenchmarkStores.HASH})
+    private String layout;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private FileSystemStore store;
+
+    private List<String> identifiers;
+
+    @Setup
+    public void setUp() throws IOException {
+        store = BenchmarkStores.create(layout);
+        if (cached) {
+            store.setViewCacheMaxBytes(2L * BLOBS * size);
+        }
+        identifiers = BenchmarkStores.fill(store, BLOBS, size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkStores.destroy(store);
+    }
+
+    private String next() {
+        return identifiers.get(ThreadLocalRandom.current().nextInt(BLOBS));
+    }
+
+    @Benchmark
+    public long view() throws IOException {
+        final ByteBuffer buffer = store.view(next());
+        long sum = 0;
+        while (buffer.remaining() >= 8) {
+            sum += buffer.getLong();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long viewRange() throws IOException {
+        final ByteBuffer buffer = store.view(next(), size / 2, Math.min(size / 2, 4096));
+        long sum = 0;
+        while (buffer.remaining() >= 8) {
+            sum += buffer.getLong();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        final byte[] chunk = new byte[8192];
+        final InputStream stream = store.read(next(), 0, size);
+        try {
+            long total = 0;
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            stream.close();
+        }
+    }
+
+}
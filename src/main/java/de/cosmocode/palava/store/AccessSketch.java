@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A compact, approximate and decaying access counter. Every identifier is mapped
+ * to four 4-bit counters, of which the smallest is its estimated frequency. All
+ * counters are halved periodically, so frequencies reflect recent accesses only.
+ *
+ * <p>
+ *   Collisions can only make identifiers look more frequent than they are.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class AccessSketch {
+
+    static final int MAX_FREQUENCY = 15;
+
+    private static final int DEPTH = 4;
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger samples = new AtomicInteger();
+
+    /**
+     * Creates a new sketch.
+     *
+     * @param counters the number of counters, rounded up to a power of two, at least 64
+     */
+    AccessSketch(int counters) {
+        Preconditions.checkArgument(counters > 0 && counters <= 1 << 30, "Counters must be between 1 and 2^30");
+        final int size = Math.max(64, Integer.highestOneBit(counters - 1) << 1);
+        this.table = new AtomicLongArray(size / 16);
+        this.mask = size - 1;
+        // computed in long, 10 * 2^30 does not fit into an int
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * size / DEPTH);
+    }
+
+    /**
+     * Records an access of the given identifier.
+     *
+     * @param identifier the identifier
+     */
+    void increment(String identifier) {
+        final long hash = HashFileIdentifier.hash(identifier);
+        for (int i = 0; i < DEPTH; i++) {
+            final int counter = indexOf(hash, i);
+            final int index = counter >>> 4;
+            final int shift = (counter & 15) << 2;
+            while (true) {
+                final long value = table.get(index);
+                if (((value >>> shift) & MAX_FREQUENCY) == MAX_FREQUENCY) break;
+                if (table.compareAndSet(index, value, value + (1L << shift))) break;
+            }
+        }
+        if (samples.incrementAndGet() >= sampleSize) {
+            decay();
+        }
+    }
+
+    /**
+     * Estimates the recent access frequency of the given identifier.
+     *
+     * @param identifier the identifier
+     * @return the frequency, between 0 and {@link #MAX_FREQUENCY}
+     */
+    int frequency(String identifier) {
+        final long hash = HashFileIdentifier.hash(identifier);
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < DEPTH; i++) {
+            final int counter = indexOf(hash, i);
+            final int value = (int) ((table.get(counter >>> 4) >>> ((counter & 15) << 2)) & MAX_FREQUENCY);
+            frequency = Math.min(frequency, value);
+        }
+        return frequency;
+    }
+
+    /**
+     * Halves all counters.
+     */
+    synchronized void decay() {
+        samples.set(0);
+        for (int i = 0; i < table.length(); i++) {
+            while (true) {
+                final long value = table.get(i);
+                if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) break;
+            }
+        }
+    }
+
+    private int indexOf(long hash, int depth) {
+        // double hashing, the odd step visits distinct counters per depth
+        final long combined = hash + depth * ((hash >>> 32) | 1L);
+        return (int) (combined ^ (combined >>> 29)) & mask;
+    }
+
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+
+/**
+ * An asynchronous facade for a {@link FileSystemStore}. Every operation returns
+ * immediately with a {@link CompletableFuture} which fails with the original
+ * exception if the operation fails.
+ *
+ * <p>
+ *   All operations run on the configured executor, which defaults to a virtual thread
+ *   per task executor if the runtime supports it and a cached thread pool otherwise.
+ * </p>
+ *
+ * <p>
+ *   Data is deliberately not transferred using an {@link java.nio.channels.AsynchronousFileChannel}.
+ *   Blobs may be compressed, start with a header, be verified against their checksum,
+ *   be cached or live in the cold tier, which only the blocking {@link FileSystemStore}
+ *   operations take care of. Reading the files directly bypassed all of that and had to
+ *   buffer whole blobs in memory. Besides, the JDK implements asynchronous file channels
+ *   on top of a thread pool on Linux, so they would not save any threads compared to
+ *   running the blocking operations on virtual threads.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class AsyncFileSystemStore implements Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncFileSystemStore.class);
+
+    private final FileSystemStore store;
+
+    private ExecutorService executor;
+
+    private boolean ownsExecutor;
+
+    @Inject
+    AsyncFileSystemStore(FileSystemStore store) {
+        this.store = Preconditions.checkNotNull(store, "Store");
+    }
+
+    @Inject(optional = true)
+    void setExecutor(@Named(FileSystemStoreConfig.EXECUTOR) ExecutorService executor) {
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = newDefaultExecutor();
+            ownsExecutor = true;
+        }
+        return executor;
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOG.debug("Using virtual threads for asynchronous store operations");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads not supported, using a cached thread pool");
+            final AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "async-store-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+    }
+
+    public FileSystemStore getStore() {
+        return store;
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#create(InputStream)}.
+     *
+     * @param stream the content
+     * @return a future holding the generated identifier
+     */
+    public CompletableFuture<String> create(final InputStream stream) {
+        Preconditions.checkNotNull(stream, "Stream");
+        return submit(new Callable<String>() {
+
+            @Override
+            public String call() throws IOException {
+                return store.create(stream);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#create(InputStream, String)}.
+     *
+     * @param stream the content
+     * @param identifier the identifier
+     * @return a future which completes once the content has been stored
+     */
+    public CompletableFuture<Void> create(final InputStream stream, final String identifier) {
+        Preconditions.checkNotNull(stream, "Stream");
+        Preconditions.checkNotNull(identifier, "Identifier");
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                store.create(stream, identifier);
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#read(String)}. The blob is opened
+     * on the executor, the content is streamed and not buffered in memory. Reading from
+     * the returned stream blocks the consuming thread.
+     *
+     * @param identifier the identifier
+     * @return a future holding a stream on the content, which has to be closed by the caller
+     */
+    public CompletableFuture<InputStream> read(final String identifier) {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        return submit(new Callable<InputStream>() {
+
+            @Override
+            public InputStream call() throws IOException {
+                return store.read(identifier);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#view(String)}.
+     *
+     * @param identifier the identifier
+     * @return a future holding the mapped content
+     */
+    public CompletableFuture<ByteBuffer> view(final String identifier) {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        return submit(new Callable<ByteBuffer>() {
+
+            @Override
+            public ByteBuffer call() throws IOException {
+                return store.view(identifier);
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#list()}.
+     *
+     * @return a future holding all identifiers
+     */
+    public CompletableFuture<Set<String>> list() {
+        return submit(new Callable<Set<String>>() {
+
+            @Override
+            public Set<String> call() throws IOException {
+                return store.list();
+            }
+
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link FileSystemStore#delete(String)}.
+     *
+     * @param identifier the identifier
+     * @return a future which completes once the blob has been deleted
+     */
+    public CompletableFuture<Void> delete(final String identifier) {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+                store.delete(identifier);
+                return null;
+            }
+
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> callable) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        getExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    future.complete(callable.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+        });
+        return future;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The per item outcome of a batch operation of the {@link FileSystemStore}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class BatchResult {
+
+    private final Set<String> succeeded;
+
+    private final Map<String, Exception> failures;
+
+    BatchResult(Set<String> succeeded, Map<String, Exception> failures) {
+        this.succeeded = ImmutableSet.copyOf(Preconditions.checkNotNull(succeeded, "Succeeded"));
+        this.failures = ImmutableMap.copyOf(Preconditions.checkNotNull(failures, "Failures"));
+    }
+
+    /**
+     * Provides all identifiers which have been processed successfully.
+     *
+     * @return an immutable set of identifiers
+     */
+    public Set<String> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Provides the cause of every failed item.
+     *
+     * @return an immutable map of identifiers to the exception which caused the failure
+     */
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult [succeeded=" + succeeded.size() + ", failed=" + failures.size() + "]";
+    }
+
+}
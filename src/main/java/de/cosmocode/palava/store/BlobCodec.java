@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression codec used by the {@link FileSystemStore} to encode blobs.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public interface BlobCodec {
+
+    /**
+     * Provides the id which is recorded in the header of every blob encoded by
+     * this codec. Ids have to be unique and must never change. Zero is reserved
+     * for unencoded content, ids below 16 are reserved for built-in codecs.
+     *
+     * @return the id
+     */
+    byte getId();
+
+    /**
+     * Provides the name of this codec, preferably the matching http content coding.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Wraps the given stream. Closing the returned stream finishes encoding
+     * and closes the given stream.
+     *
+     * @param output the target
+     * @return an encoding stream
+     * @throws IOException if opening failed
+     */
+    OutputStream encode(OutputStream output) throws IOException;
+
+    /**
+     * Wraps the given stream. Closing the returned stream closes the given stream.
+     *
+     * @param input the encoded source
+     * @return a decoding stream
+     * @throws IOException if opening failed
+     */
+    InputStream decode(InputStream input) throws IOException;
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental checksum computation created by {@link ChecksumType#newDigest()}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+interface BlobDigest {
+
+    void update(byte[] bytes, int offset, int length);
+
+    /**
+     * Consumes the remaining bytes of the given buffer.
+     *
+     * @param buffer the buffer
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Completes the computation.
+     *
+     * @return the checksum in its stored representation
+     */
+    String finish();
+
+}
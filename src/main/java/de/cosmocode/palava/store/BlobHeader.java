@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+/**
+ * The header of an encoded blob: an eight byte signature, the id of the
+ * {@link BlobCodec} and the length of the decoded content. Blobs without
+ * this header are stored as is.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class BlobHeader {
+
+    private static final byte[] MAGIC = {(byte) 0x89, 'P', 'S', 'Z', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * The number of bytes preceding the content.
+     */
+    static final int SIZE = MAGIC.length + 1 + 8;
+
+    /**
+     * The codec id of content which is stored as is.
+     */
+    static final byte IDENTITY = 0;
+
+    private final byte codec;
+
+    private final long length;
+
+    BlobHeader(byte codec, long length) {
+        this.codec = codec;
+        this.length = length;
+    }
+
+    public byte getCodec() {
+        return codec;
+    }
+
+    public boolean isIdentity() {
+        return codec == IDENTITY;
+    }
+
+    /**
+     * Provides the length of the decoded content.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public ByteBuffer toBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.put(MAGIC).put(codec).putLong(length);
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Checks whether the given content would be mistaken for a header
+     * if it was stored as is.
+     *
+     * @param bytes the content
+     * @param length the number of valid bytes
+     * @return true if the content starts with the signature
+     */
+    static boolean isAmbiguous(byte[] bytes, int length) {
+        if (length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the header of the given file.
+     *
+     * @param channel the file
+     * @return the header or null if the file is stored as is
+     * @throws IOException if reading failed
+     */
+    @Nullable
+    static BlobHeader read(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) == -1) return null;
+        }
+        ((Buffer) buffer).flip();
+        return read(buffer);
+    }
+
+    /**
+     * Reads the header at the position of the given buffer without changing it.
+     *
+     * @param buffer the content
+     * @return the header or null if the content is stored as is
+     */
+    @Nullable
+    static BlobHeader read(ByteBuffer buffer) {
+        if (buffer.remaining() < SIZE) return null;
+        final int start = buffer.position();
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(start + i) != MAGIC[i]) return null;
+        }
+        return new BlobHeader(buffer.get(start + MAGIC.length), buffer.getLong(start + MAGIC.length + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "BlobHeader [codec=" + codec + ", length=" + length + "]";
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts the blobs and bytes of a store and persists the counters to a small
+ * properties file. The file is marked clean on {@link #close()} only, counters
+ * loaded from a file which is not clean have to be reconciled by scanning the store.
+ * Counters reconciled while the store was being changed are only approximate and
+ * are not marked clean either.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class CapacityTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CapacityTracker.class);
+
+    private static final String OBJECTS = "objects";
+
+    private static final String BYTES = "bytes";
+
+    private static final String CLEAN = "clean";
+
+    private final Path file;
+
+    private final Path temp;
+
+    private final AtomicLong objects = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong pendingObjects = new AtomicLong();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    // counts every change, before the counters are modified
+    private final AtomicLong changes = new AtomicLong();
+
+    private volatile long changesBeforeReconcile;
+
+    private volatile boolean reconciling;
+
+    private volatile boolean reconciled;
+
+    CapacityTracker(Path file) {
+        this.file = Preconditions.checkNotNull(file, "File");
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Loads the counters and marks the file as in use.
+     *
+     * @return true if the counters are accurate, false if they have to be reconciled
+     * @throws IOException if reading or writing failed
+     */
+    synchronized boolean load() throws IOException {
+        final Properties properties = new Properties();
+        try {
+            final InputStream stream = Files.newInputStream(file);
+            try {
+                properties.load(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (NoSuchFileException e) {
+            LOG.info("Capacity {} is missing", file);
+        }
+        try {
+            objects.set(Long.parseLong(properties.getProperty(OBJECTS, "0")));
+            bytes.set(Long.parseLong(properties.getProperty(BYTES, "0")));
+            reconciled = Boolean.parseBoolean(properties.getProperty(CLEAN));
+        } catch (NumberFormatException e) {
+            LOG.warn("Capacity {} is corrupt", file);
+            objects.set(0);
+            bytes.set(0);
+            reconciled = false;
+        }
+        if (!reconciled) {
+            LOG.info("Capacity {} has not been saved properly", file);
+        }
+        write(false);
+        return reconciled;
+    }
+
+    /**
+     * Reserves one object.
+     *
+     * @param quota the maximum number of objects, 0 for no limit
+     * @throws QuotaExceededException if the quota would be exceeded
+     */
+    void reserveObject(long quota) throws QuotaExceededException {
+        changes.incrementAndGet();
+        if (objects.incrementAndGet() > quota && quota > 0) {
+            objects.decrementAndGet();
+            throw new QuotaExceededException(String.format("Object quota of %s reached", quota), quota);
+        }
+        if (reconciling) {
+            pendingObjects.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reserves the given number of bytes.
+     *
+     * @param count the number of bytes
+     * @param quota the maximum number of bytes, 0 for no limit
+     * @throws QuotaExceededException if the quota would be exceeded, nothing is reserved in that case
+     */
+    void reserveBytes(long count, long quota) throws QuotaExceededException {
+        changes.incrementAndGet();
+        if (bytes.addAndGet(count) > quota && quota > 0) {
+            bytes.addAndGet(-count);
+            throw new QuotaExceededException(String.format("Byte quota of %s exceeded", quota), quota);
+        }
+        if (reconciling) {
+            pendingBytes.addAndGet(count);
+        }
+    }
+
+    /**
+     * Adds the given amounts, which may be negative.
+     *
+     * @param objectDelta the number of objects
+     * @param byteDelta the number of bytes
+     */
+    void add(long objectDelta, long byteDelta) {
+        changes.incrementAndGet();
+        objects.addAndGet(objectDelta);
+        bytes.addAndGet(byteDelta);
+        if (reconciling) {
+            pendingObjects.addAndGet(objectDelta);
+            pendingBytes.addAndGet(byteDelta);
+        }
+    }
+
+    /**
+     * Starts recording changes which happen while the store is being scanned.
+     */
+    void beginReconcile() {
+        pendingObjects.set(0);
+        pendingBytes.set(0);
+        changesBeforeReconcile = changes.get();
+        reconciling = true;
+    }
+
+    /**
+     * Stops recording changes after a failed scan. The counters stay unreconciled.
+     */
+    synchronized void abortReconcile() {
+        reconciling = false;
+        pendingObjects.set(0);
+        pendingBytes.set(0);
+    }
+
+    /**
+     * Replaces the counters with the result of a scan plus all changes recorded since
+     * {@link #beginReconcile()}. Blobs changed during the scan may be counted twice
+     * or not at all, so the counters are only considered reconciled if nothing has
+     * been changed in the meantime. Otherwise they are corrected by the next
+     * reconciliation after a restart.
+     *
+     * @param scanned the result of the scan
+     */
+    synchronized void reconcile(ScanStatistics scanned) {
+        reconciling = false;
+        objects.set(scanned.getCount() + pendingObjects.getAndSet(0));
+        bytes.set(scanned.getBytes() + pendingBytes.getAndSet(0));
+        // read after setting the counters, changes overwritten by them have been counted
+        reconciled = changes.get() == changesBeforeReconcile;
+        if (reconciled) {
+            LOG.info("Reconciled capacity {} with {} objects and {} bytes", new Object[] {
+                file, objects.get(), bytes.get()
+            });
+        } else {
+            LOG.info("Approximated capacity {} with {} objects and {} bytes, store changed during the scan",
+                new Object[] {file, objects.get(), bytes.get()});
+        }
+    }
+
+    StoreCapacity getCapacity() {
+        return new StoreCapacity(objects.get(), bytes.get(), reconciled);
+    }
+
+    /**
+     * Persists the current counters, still marked as in use.
+     *
+     * @throws IOException if writing failed
+     */
+    synchronized void persist() throws IOException {
+        write(false);
+    }
+
+    /**
+     * Persists the current counters and marks them clean if they have been reconciled.
+     *
+     * @throws IOException if writing failed
+     */
+    synchronized void close() throws IOException {
+        write(reconciled && !reconciling);
+    }
+
+    private void write(boolean clean) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(OBJECTS, Long.toString(objects.get()));
+        properties.setProperty(BYTES, Long.toString(bytes.get()));
+        properties.setProperty(CLEAN, Boolean.toString(clean));
+        final OutputStream stream = Files.newOutputStream(temp);
+        try {
+            properties.store(stream, null);
+        } finally {
+            stream.close();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InputStream} which keeps a copy of everything read through it,
+ * as long as the content does not exceed a fixed size.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class CapturingInputStream extends FilterInputStream {
+
+    private final byte[] captured;
+
+    private int length;
+
+    private boolean overflowed;
+
+    CapturingInputStream(InputStream input, int limit) {
+        super(input);
+        this.captured = new byte[limit];
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+        final int read = in.read(bytes, offset, count);
+        if (read > 0 && !overflowed) {
+            if (length + read > captured.length) {
+                overflowed = true;
+            } else {
+                System.arraycopy(bytes, offset, captured, length, read);
+                length += read;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        overflowed = true;
+        return in.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Provides the captured content.
+     *
+     * @return the content read so far, or null if it exceeded the limit
+     */
+    @Nullable
+    public ByteBuffer getCaptured() {
+        return overflowed ? null : ByteBuffer.wrap(captured, 0, length);
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InputStream} which computes a checksum of everything read through it
+ * and optionally compares it to an expected value once the end has been reached.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class ChecksumInputStream extends FilterInputStream {
+
+    private final BlobDigest digest;
+
+    private final String identifier;
+
+    private final String expected;
+
+    private String checksum;
+
+    /**
+     * Creates a stream which computes a checksum.
+     *
+     * @param input the source
+     * @param digest the digest being updated
+     * @param identifier the identifier of the blob being read
+     * @param expected the expected checksum, null to only compute it
+     */
+    ChecksumInputStream(InputStream input, BlobDigest digest, String identifier, @Nullable String expected) {
+        super(input);
+        this.digest = digest;
+        this.identifier = identifier;
+        this.expected = expected;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        final int read = in.read(bytes, offset, length);
+        if (read == -1) {
+            finish();
+        } else {
+            digest.update(bytes, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes have to be part of the checksum
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void finish() throws ChecksumMismatchException {
+        if (checksum != null) return;
+        checksum = digest.finish();
+        if (expected != null && !expected.equals(checksum)) {
+            throw new ChecksumMismatchException(identifier, expected, checksum);
+        }
+    }
+
+    /**
+     * Provides the checksum of the complete stream.
+     *
+     * @return the checksum
+     * @throws IllegalStateException if the end of the stream has not been reached yet
+     */
+    public String getChecksum() {
+        if (checksum == null) throw new IllegalStateException("End of stream not reached");
+        return checksum;
+    }
+
+}
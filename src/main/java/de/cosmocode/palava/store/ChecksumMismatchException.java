@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+
+/**
+ * Signals that the content of a blob does not match its stored checksum.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class ChecksumMismatchException extends IOException {
+
+    private static final long serialVersionUID = -3591384757211744325L;
+
+    private final String identifier;
+
+    private final String expected;
+
+    private final String actual;
+
+    public ChecksumMismatchException(String identifier, String expected, String actual) {
+        super(String.format("Checksum of %s is %s, expected %s", identifier, actual, expected));
+        this.identifier = identifier;
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public String getActual() {
+        return actual;
+    }
+
+}
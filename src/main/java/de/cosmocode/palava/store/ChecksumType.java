@@ -0,0 +1,173 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The checksums a {@link FileSystemStore} can compute for its blobs.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public enum ChecksumType {
+
+    /**
+     * Castagnoli CRC, hardware accelerated on most platforms. Requires Java 9.
+     */
+    CRC32C("crc32c") {
+
+        @Override
+        BlobDigest newDigest() {
+            final Checksum checksum;
+            try {
+                checksum = (Checksum) Class.forName("java.util.zip.CRC32C").newInstance();
+            } catch (ClassNotFoundException e) {
+                throw new UnsupportedOperationException("CRC32C requires Java 9 or later", e);
+            } catch (InstantiationException e) {
+                throw new IllegalStateException(e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            return new BlobDigest() {
+
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    checksum.update(bytes, offset, length);
+                }
+
+                @Override
+                public void update(ByteBuffer buffer) {
+                    // Checksum.update(ByteBuffer) does not exist on Java 8
+                    if (buffer.hasArray()) {
+                        final int offset = buffer.arrayOffset() + buffer.position();
+                        checksum.update(buffer.array(), offset, buffer.remaining());
+                        ((Buffer) buffer).position(buffer.limit());
+                    } else {
+                        final byte[] chunk = new byte[Math.min(buffer.remaining(), CHUNK_SIZE)];
+                        while (buffer.hasRemaining()) {
+                            final int length = Math.min(buffer.remaining(), chunk.length);
+                            buffer.get(chunk, 0, length);
+                            checksum.update(chunk, 0, length);
+                        }
+                    }
+                }
+
+                @Override
+                public String finish() {
+                    return format(Checksums.toHex(checksum.getValue(), 4));
+                }
+
+            };
+        }
+
+    },
+
+    /**
+     * SHA-256, slower but suitable to detect intentional modifications as well.
+     */
+    SHA256("sha256") {
+
+        @Override
+        BlobDigest newDigest() {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            return new BlobDigest() {
+
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    digest.update(bytes, offset, length);
+                }
+
+                @Override
+                public void update(ByteBuffer buffer) {
+                    digest.update(buffer);
+                }
+
+                @Override
+                public String finish() {
+                    return format(Checksums.toHex(digest.digest()));
+                }
+
+            };
+        }
+
+    };
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final String name;
+
+    private ChecksumType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Provides the lower case name which prefixes stored checksums.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Creates a new digest computing this type of checksum.
+     *
+     * @return a new digest
+     * @throws UnsupportedOperationException if this checksum is not supported by the runtime
+     */
+    abstract BlobDigest newDigest();
+
+    /**
+     * Formats a checksum value the way it is stored.
+     *
+     * @param hex the checksum in hex
+     * @return the stored representation
+     */
+    String format(String hex) {
+        return name + ":" + hex;
+    }
+
+    /**
+     * Looks up the type of a stored checksum.
+     *
+     * @param checksum the stored checksum
+     * @return the type
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    static ChecksumType of(String checksum) {
+        final int colon = checksum.indexOf(':');
+        Preconditions.checkArgument(colon > 0, "Malformed checksum %s", checksum);
+        final String prefix = checksum.substring(0, colon);
+        for (ChecksumType type : values()) {
+            if (type.name.equals(prefix)) return type;
+        }
+        throw new IllegalArgumentException(String.format("Unknown checksum type in %s", checksum));
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Stores checksums of blobs in a user defined extended attribute, so they
+ * stay with the file when it is linked, renamed or moved.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class Checksums {
+
+    static final String ATTRIBUTE = "palava.checksum";
+
+    private static final Charset CHARSET = Charsets.US_ASCII;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Checksums() {
+
+    }
+
+    /**
+     * Checks whether the file store of the given path supports storing checksums.
+     *
+     * @param path the path
+     * @return true if extended attributes are supported
+     * @throws IOException if accessing the file store failed
+     */
+    static boolean isSupported(Path path) throws IOException {
+        return Files.getFileStore(path).supportsFileAttributeView(UserDefinedFileAttributeView.class);
+    }
+
+    static void write(Path path, String checksum) throws IOException {
+        view(path).write(ATTRIBUTE, ByteBuffer.wrap(checksum.getBytes(CHARSET)));
+    }
+
+    /**
+     * Reads the checksum of the given file.
+     *
+     * @param path the file
+     * @return the checksum or null if none has been stored
+     * @throws IOException if reading failed
+     */
+    @Nullable
+    static String read(Path path) throws IOException {
+        final UserDefinedFileAttributeView view = view(path);
+        if (view == null) return null;
+        final int size;
+        try {
+            size = view.size(ATTRIBUTE);
+        } catch (FileSystemException e) {
+            // ENODATA is reported without a more specific exception
+            if (Files.exists(path)) return null;
+            throw e;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        view.read(ATTRIBUTE, buffer);
+        ((Buffer) buffer).flip();
+        return CHARSET.decode(buffer).toString();
+    }
+
+    private static UserDefinedFileAttributeView view(Path path) {
+        return Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+    }
+
+    static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    static String toHex(long value, int bytes) {
+        final byte[] big = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            big[i] = (byte) (value >>> (8 * (bytes - 1 - i)));
+        }
+        return toHex(big);
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link BlobCodec} using the zlib format of the JDK's {@link Deflater}, which
+ * matches the {@code deflate} http content coding.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class DeflateCodec implements BlobCodec {
+
+    static final byte ID = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateCodec(int level) {
+        Preconditions.checkArgument(level == Deflater.DEFAULT_COMPRESSION ||
+            level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION, "Illegal level %s", level);
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public OutputStream encode(OutputStream output) throws IOException {
+        return new DeflaterOutputStream(output, new Deflater(level), BUFFER_SIZE) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // deflaters passed in are not released by the stream itself
+                    def.end();
+                }
+            }
+
+        };
+    }
+
+    @Override
+    public InputStream decode(InputStream input) throws IOException {
+        return new InflaterInputStream(input, new Inflater(), BUFFER_SIZE) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateCodec [level=" + level + "]";
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Static utility methods for directories.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class Directories {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Directories.class);
+
+    private Directories() {
+
+    }
+
+    /**
+     * Forces the given directory to disk, making previous renames and
+     * links inside of it durable.
+     *
+     * @param path the directory
+     * @throws IOException if forcing failed
+     */
+    public static void force(Path path) throws IOException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms do not allow to open directories
+            LOG.trace("Unable to open directory {} for syncing: {}", path, e.getMessage());
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+}
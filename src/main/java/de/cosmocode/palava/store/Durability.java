@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * Specifies how hard the {@link FileSystemStore} tries to make a created file
+ * survive a crash before {@link FileSystemStore#create(java.io.InputStream, String)} returns.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public enum Durability {
+
+    /**
+     * Leaves flushing to the operating system.
+     */
+    NONE,
+
+    /**
+     * Forces the file content to disk before it is renamed into place.
+     */
+    FILE,
+
+    /**
+     * Like {@link #FILE}, additionally forces the containing directory
+     * after the rename so the new directory entry is durable too.
+     */
+    DIRECTORY,
+
+    /**
+     * Same guarantees as {@link #DIRECTORY}, but concurrent writers share directory
+     * flushes. Every writer forces its own file, then waits until a background flusher
+     * forced all directories of a batch, each of them once.
+     */
+    GROUP;
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An append-only, periodically compacted log of all identifiers in a store.
+ *
+ * <p>
+ *   Records are kept in an {@link IdentifierLog}. A clean shutdown forces all records
+ *   and appends a marker record, which is removed again when the index is loaded.
+ *   An index which does not end with that marker, e.g. after a crash, is considered
+ *   corrupt and has to be rebuilt using {@link #rebuild(Iterable)}, because appends
+ *   are not forced to disk.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class FileIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileIndex.class);
+
+    private final IdentifierLog log;
+
+    private final Set<String> identifiers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    FileIndex(Path file) {
+        this.log = new IdentifierLog(Preconditions.checkNotNull(file, "File"));
+    }
+
+    /**
+     * Loads the index from disk.
+     *
+     * @return true if the index was loaded, false if it is missing or corrupt
+     * @throws IOException if reading failed for other reasons
+     */
+    public synchronized boolean load() throws IOException {
+        final IdentifierLog.State state = log.replay(identifiers);
+        if (state == IdentifierLog.State.MISSING) {
+            LOG.info("Index {} is missing", log.getFile());
+            return false;
+        } else if (state != IdentifierLog.State.CLEAN) {
+            LOG.warn("Index {} has not been closed properly", log.getFile());
+            identifiers.clear();
+            return false;
+        }
+
+        LOG.debug("Loaded {} identifiers from index {}", identifiers.size(), log.getFile());
+        // a crash from now on has to be detected, appends are not forced
+        log.reopen();
+        if (log.needsCompaction(identifiers.size())) {
+            log.compact(identifiers);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the contents of this index with the given identifiers.
+     *
+     * @param all all identifiers currently present in the store
+     * @throws IOException if writing failed
+     */
+    public synchronized void rebuild(Iterable<String> all) throws IOException {
+        identifiers.clear();
+        for (String identifier : all) {
+            identifiers.add(identifier);
+        }
+        LOG.info("Rebuilt index {} with {} identifiers", log.getFile(), identifiers.size());
+        log.compact(identifiers);
+    }
+
+    /**
+     * Records the given identifier as present.
+     *
+     * @param identifier the identifier
+     * @throws IOException if appending failed
+     */
+    public synchronized void add(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (identifiers.add(identifier)) {
+            log.add(identifier);
+            if (log.needsCompaction(identifiers.size())) {
+                log.compact(identifiers);
+            }
+        }
+    }
+
+    /**
+     * Records the given identifier as removed.
+     *
+     * @param identifier the identifier
+     * @throws IOException if appending failed
+     */
+    public synchronized void remove(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (identifiers.remove(identifier)) {
+            log.remove(identifier);
+            if (log.needsCompaction(identifiers.size())) {
+                log.compact(identifiers);
+            }
+        }
+    }
+
+    public boolean contains(String identifier) {
+        return identifiers.contains(identifier);
+    }
+
+    public int size() {
+        return identifiers.size();
+    }
+
+    /**
+     * Provides an immutable copy of all identifiers.
+     *
+     * @return all identifiers
+     */
+    public Set<String> snapshot() {
+        return ImmutableSet.copyOf(identifiers);
+    }
+
+    /**
+     * Marks the index as cleanly closed and releases the underlying file.
+     *
+     * @throws IOException if writing the marker failed
+     */
+    public synchronized void close() throws IOException {
+        log.close(true);
+    }
+
+}
@@ -16,39 +16,81 @@
 
 package de.cosmocode.palava.store;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.Closeables;
-import com.google.common.io.Files;
-import com.google.common.io.InputSupplier;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
 /**
  * File system based implementation of the {@link Store} interface.
  *
@@ -61,21 +103,116 @@ import com.google.inject.name.Named;
  *
  * @author Willi Schoenborn
  */
-public final class FileSystemStore extends AbstractByteStore {
+public final class FileSystemStore extends AbstractByteStore implements Initializable, Disposable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileSystemStore.class);
 
+    /**
+     * Name of the directory inside the store directory which holds incomplete files.
+     * It lives on the same file system, so moving a file out of it is atomic.
+     */
+    static final String STAGING = ".staging";
+
+    /**
+     * Name of the identifier index file inside the store directory.
+     */
+    static final String INDEX = ".index";
+
+    /**
+     * Name of the log of pending deferred deletes inside the store directory.
+     */
+    static final String TOMBSTONES = ".tombstones";
+
+    /**
+     * Name of the file holding the persisted capacity counters inside the store directory.
+     */
+    static final String CAPACITY = ".capacity";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Suffix of imported files in staging, which are the only copy and never swept.
+     */
+    static final String IMPORT_SUFFIX = ".import";
+
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final int MAX_KNOWN_DIRECTORIES = 1 << 20;
+
+    private static final int ACCESS_COUNTERS = 1 << 20;
+
+    private static final int MAX_PROMOTIONS = 1024;
+
+    private static final long CAPACITY_PERSIST_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Prefix of list tokens pointing into the cold tier, never produced by hot tokens.
+     */
+    private static final String COLD_TOKEN = "/";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private static final int MIN_COMPRESSIBLE = 64;
+
+    private static final double MAX_COMPRESSION_RATIO = 0.9;
+
+    /**
+     * Names in the store directory which are not part of the shard tree.
+     */
+    static final Set<String> RESERVED = ImmutableSet.of(STAGING, INDEX, INDEX + TEMP_SUFFIX,
+        TOMBSTONES, TOMBSTONES + TEMP_SUFFIX, CAPACITY, CAPACITY + TEMP_SUFFIX,
+        LayoutMigration.CHECKPOINT, LayoutMigration.CHECKPOINT + TEMP_SUFFIX,
+        MultiVolumeStore.VOLUME, MultiVolumeStore.VOLUME + TEMP_SUFFIX, MultiVolumeStore.REBALANCING);
+
+    private static final Splitter TOKEN_SPLITTER = Splitter.on('/');
+
+    private static final Joiner TOKEN_JOINER = Joiner.on('/');
+
     private final File directory;
 
+    private final Path root;
+
+    private final Path staging;
+
+    private final StripedLocks locks = new StripedLocks(1024);
+
+    /**
+     * Directories which are known to exist. Entries are added and removed while
+     * holding the lock of the directory.
+     */
+    private final Set<Path> directories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    private boolean precreateDirectories;
+
+    private volatile boolean directoriesPinned;
+
     private IdGenerator generator = new UUIDGenerator();
 
     private FileIdentifier fileIdentifier = new DefaultFileIdentifier();
 
-    private final Function<File, String> toIdentifier = new Function<File, String>() {
+    private FileIdentifier legacyFileIdentifier;
+
+    private final Function<Path, String> coldPathToIdentifier = new Function<Path, String>() {
+
+        @Override
+        public String apply(Path from) {
+            return fileIdentifier.toIdentifier(coldDirectory, from.toFile());
+        }
+
+    };
+
+    private final Function<Path, String> pathToIdentifier = new Function<Path, String>() {
 
         @Override
-        public String apply(File from) {
-            return fileIdentifier.toIdentifier(directory, from);
+        public String apply(Path from) {
+            final File file = from.toFile();
+            final String identifier = fileIdentifier.toIdentifier(directory, file);
+            final FileIdentifier legacy = legacyFileIdentifier;
+            if (legacy == null || fileIdentifier.toFile(directory, identifier).equals(file)) {
+                return identifier;
+            } else {
+                return legacy.toIdentifier(directory, file);
+            }
         }
 
     };
@@ -84,11 +221,129 @@ public final class FileSystemStore extends AbstractByteStore {
 
     private String unixPermissions;
 
+    private UnixAttributes unixAttributes = UnixAttributes.none();
+
+    private Durability durability = Durability.NONE;
+
+    private int groupCommitMaxBatch = 64;
+
+    private long groupCommitMaxWait = 5;
+
+    private TimeUnit groupCommitMaxWaitUnit = TimeUnit.MILLISECONDS;
+
+    private volatile GroupCommitter committer;
+
+    private boolean indexed;
+
+    private volatile FileIndex index;
+
+    private long viewCacheMaxBytes;
+
+    private int viewCacheMaxEntries = 1024;
+
+    private ViewCache viewCache;
+
+    private long slabCacheMaxBytes;
+
+    private int slabCacheMaxBlobSize = 16 * 1024;
+
+    private boolean slabCacheWriteThrough;
+
+    private SlabCache slabCache;
+
+    private BufferPool buffers = new BufferPool(64 * 1024, 64);
+
+    private BufferPool heapBuffers = new BufferPool(64 * 1024, 64, false);
+
+    private int batchThreads = Runtime.getRuntime().availableProcessors();
+
+    private BlobCodec codec;
+
+    private final Map<Byte, BlobCodec> codecs = new ConcurrentHashMap<Byte, BlobCodec>();
+
+    private ChecksumType checksumType;
+
+    private boolean verifyChecksums;
+
+    private long scrubBytesPerSecond;
+
+    private long scrubInterval = 1;
+
+    private TimeUnit scrubIntervalUnit = TimeUnit.DAYS;
+
+    private ScrubListener scrubListener = NoScrubListener.INSTANCE;
+
+    private Thread scrubber;
+
+    private boolean deferredDelete;
+
+    private int reaperBatchSize = 100;
+
+    private int reaperRate = 1000;
+
+    private volatile TombstoneLog tombstones;
+
+    private final BlockingQueue<String> reaperQueue = new LinkedBlockingQueue<String>();
+
+    private Thread reaper;
+
+    private File coldDirectory;
+
+    private Path coldRoot;
+
+    /**
+     * Whether the cold tier is in use, false until it has been opened by initialize.
+     */
+    private volatile boolean coldTierOpen;
+
+    private volatile AccessSketch accesses;
+
+    private final BlockingQueue<String> promotions = new LinkedBlockingQueue<String>(MAX_PROMOTIONS);
+
+    private long tierMinAge = 7;
+
+    private TimeUnit tierMinAgeUnit = TimeUnit.DAYS;
+
+    private int promoteThreshold = 4;
+
+    private long tierBytesPerSecond = 16L * 1024 * 1024;
+
+    private long tierInterval = 1;
+
+    private TimeUnit tierIntervalUnit = TimeUnit.HOURS;
+
+    private Thread mover;
+
+    private boolean trackCapacity;
+
+    private long quotaBytes;
+
+    private long quotaObjects;
+
+    private volatile CapacityTracker capacity;
+
+    private Thread capacityThread;
+
+    private final StoreMetrics metrics = new StoreMetrics();
+
+    private String jmxName;
+
+    private ObjectName objectName;
+
     @Inject
     FileSystemStore(@Named(FileSystemStoreConfig.DIRECTORY) File directory) throws IOException {
         Preconditions.checkNotNull(directory, "Directory");
         FileUtils.forceMkdir(directory);
         this.directory = directory;
+        this.root = directory.toPath();
+        this.staging = root.resolve(STAGING);
+        final BlobCodec deflate = new DeflateCodec();
+        codecs.put(deflate.getId(), deflate);
+        sweepStaging();
+        if (Files.exists(root.resolve(TOMBSTONES))) {
+            // replayed before anything becomes visible
+            getTombstones();
+        }
     }
 
     @Inject(optional = true)
@@ -104,182 +359,3043 @@ public final class FileSystemStore extends AbstractByteStore {
     @Inject(optional = true)
     public void setUnixOwner(@Named(FileSystemStoreConfig.UNIX_OWNER) @Nullable String unixOwner) {
         this.unixOwner = unixOwner;
+        resolveUnixAttributes();
     }
 
     @Inject(optional = true)
     public void setUnixPermissions(@Named(FileSystemStoreConfig.UNIX_PERMISSIONS) @Nullable String unixPermissions) {
         this.unixPermissions = unixPermissions;
+        resolveUnixAttributes();
     }
 
-    public FileIdentifier getFileIdentifier() {
-        return fileIdentifier;
+    private void resolveUnixAttributes() {
+        try {
+            this.unixAttributes = UnixAttributes.of(directory.toPath().getFileSystem(), unixOwner, unixPermissions);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format(
+                "Unable to resolve unix owner %s", unixOwner), e);
+        }
     }
 
-    @Override
-    public String create(InputStream stream) throws IOException {
-        Preconditions.checkNotNull(stream, "Stream");
-        final String uuid = generator.generate();
-        create(stream, uuid);
-        return uuid;
+    @Inject(optional = true)
+    public void setDurability(@Named(FileSystemStoreConfig.DURABILITY) Durability durability) {
+        this.durability = Preconditions.checkNotNull(durability, "Durability");
     }
 
-    @Override
-    public void create(final InputStream stream, String identifier) throws IOException {
-        Preconditions.checkNotNull(stream, "Stream");
-        final File file = getFile(identifier);
-        Preconditions.checkState(!file.exists(), "File %s is already present", file);
-        LOG.trace("Storing {} to {}", stream, file);
+    @Inject(optional = true)
+    void setGroupCommitMaxBatch(@Named(FileSystemStoreConfig.GROUP_COMMIT_MAX_BATCH) int maxBatch) {
+        Preconditions.checkArgument(maxBatch > 0, "MaxBatch must be positive");
+        this.groupCommitMaxBatch = maxBatch;
+    }
 
-        Files.createParentDirs(file);
-        Files.copy(asSupplier(stream), file);
+    @Inject(optional = true)
+    void setGroupCommitMaxWait(@Named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT) long maxWait) {
+        Preconditions.checkArgument(maxWait >= 0, "MaxWait must not be negative");
+        this.groupCommitMaxWait = maxWait;
+    }
 
-        final Process chown = setOwner(file);
-        final Process chmod = setPermissions(file);
+    @Inject(optional = true)
+    void setGroupCommitMaxWaitUnit(@Named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT_UNIT) TimeUnit maxWaitUnit) {
+        this.groupCommitMaxWaitUnit = Preconditions.checkNotNull(maxWaitUnit, "MaxWaitUnit");
+    }
 
-        try {
-            waitAndCheck(chown);
-            waitAndCheck(chmod);
-        } catch (InterruptedException e) {
-            throw new IOException(e);
-        } finally {
-            close(chown);
-            close(chmod);
-        }
+    /**
+     * Enables the persistent identifier index, which allows {@link #list()} and
+     * {@link #contains(String)} to answer without walking the directory tree.
+     * The index is loaded on first use.
+     *
+     * @param indexed true to enable the index
+     */
+    @Inject(optional = true)
+    public void setIndexed(@Named(FileSystemStoreConfig.INDEXED) boolean indexed) {
+        this.indexed = indexed;
     }
 
-    private void waitAndCheck(Process process) throws InterruptedException, IOException {
-        if (process.waitFor() == 0) {
-            return;
-        } else {
-            final byte[] bytes = ByteStreams.toByteArray(process.getErrorStream());
-            final String message = new String(bytes, Charsets.UTF_8);
-            throw new IOException(message);
-        }
+    /**
+     * Enables caching of mapped files in {@link #view(String)} if positive.
+     *
+     * @param maxBytes the maximum number of mapped bytes held by the cache
+     */
+    @Inject(optional = true)
+    public void setViewCacheMaxBytes(@Named(FileSystemStoreConfig.VIEW_CACHE_MAX_BYTES) long maxBytes) {
+        Preconditions.checkArgument(maxBytes >= 0, "MaxBytes must not be negative");
+        this.viewCacheMaxBytes = maxBytes;
+        createViewCache();
     }
 
-    private void close(Process process) {
-        Closeables.closeQuietly(process.getInputStream());
-        Closeables.closeQuietly(process.getOutputStream());
-        Closeables.closeQuietly(process.getErrorStream());
+    @Inject(optional = true)
+    public void setViewCacheMaxEntries(@Named(FileSystemStoreConfig.VIEW_CACHE_MAX_ENTRIES) int maxEntries) {
+        Preconditions.checkArgument(maxEntries > 0, "MaxEntries must be positive");
+        this.viewCacheMaxEntries = maxEntries;
+        createViewCache();
     }
 
-    private Process setOwner(File file) throws IOException {
-        if (unixOwner == null) {
-            LOG.trace("No unix owner configured, using defaults");
-            return DummyProcess.getInstance();
-        } else {
-            final String path = file.getAbsolutePath();
-            LOG.trace("Setting unix owner to {} for file {}", unixOwner, path);
-            return exec("chown %s %s", unixOwner, path);
-        }
+    private void createViewCache() {
+        this.viewCache = viewCacheMaxBytes == 0 ? null : new ViewCache(viewCacheMaxBytes, viewCacheMaxEntries);
     }
 
-    private Process setPermissions(File file) throws IOException {
-        if (unixPermissions == null) {
-            LOG.trace("No unix permissions configured, using defaults");
-            return DummyProcess.getInstance();
-        } else {
-            final String path = file.getAbsolutePath();
-            LOG.trace("Setting unix permissions to {} for file {}", unixPermissions, path);
-            return exec("chmod %s %s", unixPermissions, path);
-        }
+    /**
+     * Enables the off-heap cache for small blobs. Blobs up to the maximum blob size
+     * are read instead of mapped and their content is kept in direct memory slabs.
+     * Slabs are allocated in chunks of one MiB, so any enabled cache needs at least
+     * that much memory.
+     *
+     * @since 1.3
+     * @param maxBytes the maximum size of all slabs, at least 1 MiB or 0 to disable the cache
+     * @throws IllegalArgumentException if maxBytes is negative or between 1 byte and 1 MiB
+     */
+    @Inject(optional = true)
+    public void setSlabCacheMaxBytes(@Named(FileSystemStoreConfig.SLAB_CACHE_MAX_BYTES) long maxBytes) {
+        Preconditions.checkArgument(maxBytes == 0 || maxBytes >= SlabCache.SLAB_SIZE,
+            "MaxBytes must be 0 or at least %s", SlabCache.SLAB_SIZE);
+        this.slabCacheMaxBytes = maxBytes;
+        createSlabCache();
     }
 
-    private Process exec(String template, Object... arguments) throws IOException {
-        final String command = String.format(template, arguments);
-        LOG.trace("Executing '{}'", command);
-        return Runtime.getRuntime().exec(command);
+    @Inject(optional = true)
+    public void setSlabCacheMaxBlobSize(@Named(FileSystemStoreConfig.SLAB_CACHE_MAX_BLOB_SIZE) int maxBlobSize) {
+        Preconditions.checkArgument(maxBlobSize > 0, "MaxBlobSize must be positive");
+        this.slabCacheMaxBlobSize = maxBlobSize;
+        createSlabCache();
     }
 
-    private InputSupplier<InputStream> asSupplier(final InputStream stream) {
-        return new InputSupplier<InputStream>() {
+    /**
+     * Enables populating the slab cache when small blobs are created,
+     * instead of on their first view.
+     *
+     * @since 1.3
+     * @param writeThrough true to cache on create
+     */
+    @Inject(optional = true)
+    public void setSlabCacheWriteThrough(@Named(FileSystemStoreConfig.SLAB_CACHE_WRITE_THROUGH) boolean writeThrough) {
+        this.slabCacheWriteThrough = writeThrough;
+    }
 
-            @Override
-            public InputStream getInput() throws IOException {
-                return stream;
-            }
+    private void createSlabCache() {
+        this.slabCache = slabCacheMaxBytes == 0 ? null : new SlabCache(slabCacheMaxBytes, slabCacheMaxBlobSize);
+    }
 
-        };
+    /**
+     * Sets the size of the pooled buffers used to copy data, both while reading
+     * and while creating blobs.
+     *
+     * @param bufferSize the buffer size in bytes
+     */
+    @Inject(optional = true)
+    public void setBufferSize(@Named(FileSystemStoreConfig.BUFFER_SIZE) int bufferSize) {
+        this.buffers = new BufferPool(bufferSize, 64);
+        this.heapBuffers = new BufferPool(bufferSize, 64, false);
     }
 
-    @Override
-    public ByteBuffer view(String identifier) throws IOException {
-        Preconditions.checkNotNull(identifier, "Identifier");
-        final File file = getFile(identifier);
-        Preconditions.checkState(file.exists(), "%s does not exist", file);
-        LOG.trace("Reading file from {}", file);
-        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
-        return channel.map(MapMode.READ_ONLY, 0, channel.size());
+    /**
+     * Sets the maximum number of threads used by a single batch operation.
+     *
+     * @param threads the number of threads
+     */
+    @Inject(optional = true)
+    public void setBatchThreads(@Named(FileSystemStoreConfig.BATCH_THREADS) int threads) {
+        Preconditions.checkArgument(threads > 0, "Threads must be positive");
+        this.batchThreads = threads;
     }
 
-    @Override
-    public Set<String> list() throws IOException {
-        final IOFileFilter fileFilter = FileFilterUtils.fileFileFilter();
-        final IOFileFilter directoryFilter = TrueFileFilter.INSTANCE;
-        @SuppressWarnings("unchecked")
-        final Collection<File> files = FileUtils.listFiles(directory, fileFilter, directoryFilter);
-        return Sets.newHashSet(Collections2.transform(files, toIdentifier));
+    /**
+     * Enables deferred deletion. {@link #delete(String)} then only records a tombstone,
+     * which hides the identifier immediately, and a background reaper started by
+     * {@link #initialize()} removes the files and prunes empty directories in batches
+     * at a limited rate. Pending tombstones are replayed when the store is opened again,
+     * even if deferred deletion has been disabled in the meantime.
+     *
+     * @since 1.3
+     * @param deferredDelete true to defer deletion
+     */
+    @Inject(optional = true)
+    public void setDeferredDelete(@Named(FileSystemStoreConfig.DELETE_DEFERRED) boolean deferredDelete) {
+        this.deferredDelete = deferredDelete;
     }
 
     /**
-     * {@inheritDoc}
+     * Adds a cold tier. New blobs are always written to the store directory, the hot tier.
+     * Blobs older than the minimum age which have not been read recently are moved to
+     * the cold tier in the background, cold blobs which are read frequently are moved back.
+     * The cold tier is opened during {@link #initialize()} and uses the same layout.
+     * Membership is not kept in memory, a blob is cold if it only exists in the cold tier.
      *
-     * <p>
-     *   Recursively deletes empty parent directories.
-     * </p>
+     * @since 1.3
+     * @param coldDirectory the directory of the cold tier, outside of the store directory
      */
-    @Override
-    public void delete(String identifier) throws IOException {
-        Preconditions.checkNotNull(identifier, "Identifier");
-        final File file = getFile(identifier);
-        Preconditions.checkState(file.exists(), "%s does not exist", file);
-        LOG.trace("Removing {} from store", file);
-        FileUtils.forceDelete(file);
-        deleteEmptyParent(file.getParentFile());
+    @Inject(optional = true)
+    public void setColdDirectory(@Named(FileSystemStoreConfig.COLD_DIRECTORY) File coldDirectory) {
+        Preconditions.checkNotNull(coldDirectory, "ColdDirectory");
+        final Path path = coldDirectory.toPath().toAbsolutePath().normalize();
+        final Path hot = root.toAbsolutePath().normalize();
+        Preconditions.checkArgument(!path.startsWith(hot) && !hot.startsWith(path),
+            "%s and %s must not contain each other", coldDirectory, directory);
+        this.coldDirectory = coldDirectory;
+        this.coldRoot = coldDirectory.toPath();
+    }
+
+    @Inject(optional = true)
+    void setTierMinAge(@Named(FileSystemStoreConfig.TIER_MIN_AGE) long minAge) {
+        Preconditions.checkArgument(minAge >= 0, "MinAge must not be negative");
+        this.tierMinAge = minAge;
+    }
+
+    @Inject(optional = true)
+    void setTierMinAgeUnit(@Named(FileSystemStoreConfig.TIER_MIN_AGE_UNIT) TimeUnit unit) {
+        this.tierMinAgeUnit = Preconditions.checkNotNull(unit, "Unit");
     }
 
     /**
-     * Provides a file pointing to the target as specified by
-     * the given identifier.
+     * Sets the number of recent reads which move a cold blob back to the hot tier.
      *
-     * @param identifier the file identifier
-     * @return a file (may not exist)
+     * @since 1.3
+     * @param threshold the threshold, between 1 and 15
      */
-    private File getFile(String identifier) {
-        return fileIdentifier.toFile(directory, identifier);
+    @Inject(optional = true)
+    public void setPromoteThreshold(@Named(FileSystemStoreConfig.TIER_PROMOTE_THRESHOLD) int threshold) {
+        Preconditions.checkArgument(threshold > 0 && threshold <= AccessSketch.MAX_FREQUENCY,
+            "Threshold must be between 1 and %s", AccessSketch.MAX_FREQUENCY);
+        this.promoteThreshold = threshold;
     }
 
     /**
-     * Reads a file from this store.
+     * Limits the number of bytes moved between the tiers per second.
      *
-     * @param identifier the identifier of the binary data being retrieved
-     * @return the file associated with the given identifier
-     * @throws IOException if file does not exist
+     * @since 1.3
+     * @param bytesPerSecond the budget, 0 to disable moving blobs in the background
      */
-    public File readFile(String identifier) throws IOException {
-        Preconditions.checkNotNull(identifier, "Identifier");
-        final File file = getFile(identifier);
-        if (file.exists()) {
-            return file;
-        } else {
-            throw new FileNotFoundException(file.getAbsolutePath());
-        }
+    @Inject(optional = true)
+    public void setTierBytesPerSecond(@Named(FileSystemStoreConfig.TIER_BYTES_PER_SECOND) long bytesPerSecond) {
+        Preconditions.checkArgument(bytesPerSecond >= 0, "BytesPerSecond must not be negative");
+        this.tierBytesPerSecond = bytesPerSecond;
     }
 
-    private void deleteEmptyParent(File file) throws IOException {
-        Preconditions.checkArgument(file.isDirectory(), "%s has to be a directory", file);
+    @Inject(optional = true)
+    void setTierInterval(@Named(FileSystemStoreConfig.TIER_INTERVAL) long interval) {
+        Preconditions.checkArgument(interval > 0, "Interval must be positive");
+        this.tierInterval = interval;
+    }
 
-        // do not delete configured directory
-        if (directory.equals(file)) return;
+    @Inject(optional = true)
+    void setTierIntervalUnit(@Named(FileSystemStoreConfig.TIER_INTERVAL_UNIT) TimeUnit unit) {
+        this.tierIntervalUnit = Preconditions.checkNotNull(unit, "Unit");
+    }
 
-        if (file.list().length > 0) {
-            LOG.trace("Keeping non empty directory {}", file);
-            return;
-        }
+    /**
+     * Enables counting of blobs and bytes, see {@link #getCapacity()}. The counters are
+     * persisted periodically and during {@link #dispose()}. Counters which have not been
+     * persisted during a clean shutdown are reconciled by a background scan after
+     * {@link #initialize()}.
+     *
+     * @since 1.3
+     * @param trackCapacity true to count blobs and bytes
+     */
+    @Inject(optional = true)
+    public void setTrackCapacity(@Named(FileSystemStoreConfig.CAPACITY_TRACKING) boolean trackCapacity) {
+        this.trackCapacity = trackCapacity;
+    }
+
+    /**
+     * Limits the number of bytes this store may hold. Creates which would exceed the
+     * limit fail with a {@link QuotaExceededException} as soon as the limit is reached,
+     * without reading the rest of their input. Enables capacity tracking.
+     *
+     * @since 1.3
+     * @param quotaBytes the maximum number of bytes, 0 for no limit
+     */
+    @Inject(optional = true)
+    public void setQuotaBytes(@Named(FileSystemStoreConfig.QUOTA_BYTES) long quotaBytes) {
+        Preconditions.checkArgument(quotaBytes >= 0, "QuotaBytes must not be negative");
+        this.quotaBytes = quotaBytes;
+    }
+
+    /**
+     * Limits the number of blobs this store may hold. Creates which would exceed the
+     * limit fail with a {@link QuotaExceededException} before reading any input.
+     * Enables capacity tracking.
+     *
+     * @since 1.3
+     * @param quotaObjects the maximum number of blobs, 0 for no limit
+     */
+    @Inject(optional = true)
+    public void setQuotaObjects(@Named(FileSystemStoreConfig.QUOTA_OBJECTS) long quotaObjects) {
+        Preconditions.checkArgument(quotaObjects >= 0, "QuotaObjects must not be negative");
+        this.quotaObjects = quotaObjects;
+    }
+
+    @Inject(optional = true)
+    void setReaperBatchSize(@Named(FileSystemStoreConfig.REAPER_BATCH_SIZE) int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        this.reaperBatchSize = batchSize;
+    }
 
-        LOG.trace("Deleting empty directory {}", file);
-        FileUtils.deleteDirectory(file);
-        deleteEmptyParent(file.getParentFile());
+    /**
+     * Limits the number of files removed by the reaper per second.
+     *
+     * @since 1.3
+     * @param rate the number of files per second
+     */
+    @Inject(optional = true)
+    public void setReaperRate(@Named(FileSystemStoreConfig.REAPER_RATE) int rate) {
+        Preconditions.checkArgument(rate > 0, "Rate must be positive");
+        this.reaperRate = rate;
+    }
+
+    /**
+     * Enables compression of new blobs using {@link DeflateCodec}.
+     *
+     * @since 1.3
+     * @param compression true to compress new blobs
+     * @see #setCodec(BlobCodec)
+     */
+    @Inject(optional = true)
+    public void setCompression(@Named(FileSystemStoreConfig.COMPRESSION) boolean compression) {
+        setCodec(compression ? codecs.get(DeflateCodec.ID) : null);
+    }
+
+    /**
+     * Sets the codec used to compress new blobs. Content which does not compress
+     * well is stored as is. Blobs are decoded using the codec recorded in their
+     * header, so codecs should stay registered after switching to another one.
+     *
+     * @since 1.3
+     * @param codec the codec, null to store new blobs as is
+     */
+    @Inject(optional = true)
+    public void setCodec(@Named(FileSystemStoreConfig.CODEC) @Nullable BlobCodec codec) {
+        if (codec != null) {
+            Preconditions.checkArgument(codec.getId() != BlobHeader.IDENTITY, "Codec id %s is reserved", codec.getId());
+            final BlobCodec existing = codecs.get(codec.getId());
+            Preconditions.checkArgument(existing == null || existing.getClass() == codec.getClass(),
+                "Codec id %s is already used by %s", codec.getId(), existing);
+            codecs.put(codec.getId(), codec);
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Enables checksums, which are computed while creating blobs and stored in an
+     * extended attribute of their file.
+     *
+     * @since 1.3
+     * @param checksumType the type of checksum, null to disable checksums
+     * @throws IOException if accessing the file system failed
+     * @throws IllegalStateException if the file system does not support extended attributes
+     */
+    @Inject(optional = true)
+    public void setChecksum(@Named(FileSystemStoreConfig.CHECKSUM) @Nullable ChecksumType checksumType)
+        throws IOException {
+        if (checksumType != null) {
+            Preconditions.checkState(Checksums.isSupported(root),
+                "%s does not support extended attributes required for checksums", directory);
+            // fail early if the runtime lacks the algorithm
+            checksumType.newDigest();
+        }
+        this.checksumType = checksumType;
+    }
+
+    /**
+     * Enables verification of checksums when reading or viewing complete blobs. Ranged
+     * reads and views, transfers and views served from the view cache are not verified.
+     *
+     * @since 1.3
+     * @param verifyChecksums true to verify checksums
+     */
+    @Inject(optional = true)
+    public void setVerifyChecksums(@Named(FileSystemStoreConfig.CHECKSUM_VERIFY) boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Enables the background scrubber, which verifies the checksums of all blobs once
+     * per interval, reading at most the given number of bytes per second.
+     *
+     * @since 1.3
+     * @param bytesPerSecond the read budget, 0 to disable scrubbing
+     */
+    @Inject(optional = true)
+    public void setScrubBytesPerSecond(@Named(FileSystemStoreConfig.SCRUB_BYTES_PER_SECOND) long bytesPerSecond) {
+        Preconditions.checkArgument(bytesPerSecond >= 0, "BytesPerSecond must not be negative");
+        this.scrubBytesPerSecond = bytesPerSecond;
+    }
+
+    @Inject(optional = true)
+    void setScrubInterval(@Named(FileSystemStoreConfig.SCRUB_INTERVAL) long interval) {
+        Preconditions.checkArgument(interval >= 0, "Interval must not be negative");
+        this.scrubInterval = interval;
+    }
+
+    @Inject(optional = true)
+    void setScrubIntervalUnit(@Named(FileSystemStoreConfig.SCRUB_INTERVAL_UNIT) TimeUnit unit) {
+        this.scrubIntervalUnit = Preconditions.checkNotNull(unit, "Unit");
+    }
+
+    @Inject(optional = true)
+    public void setScrubListener(@Named(FileSystemStoreConfig.SCRUB_LISTENER) ScrubListener listener) {
+        this.scrubListener = Preconditions.checkNotNull(listener, "Listener");
+    }
+
+    /**
+     * Sets the name under which the {@link StoreMetrics} of this store are registered
+     * as MBean during {@link #initialize()}. Stores bound using
+     * {@link FileSystemStoreModule#named(String)} use their name.
+     *
+     * @param jmxName the name, null to disable registration
+     */
+    @Inject(optional = true)
+    public void setJmxName(@Named(FileSystemStoreConfig.JMX_NAME) @Nullable String jmxName) {
+        this.jmxName = jmxName;
+    }
+
+    /**
+     * Creates every directory of a {@link HashFileIdentifier} layout during {@link #initialize()},
+     * so creates never have to create directories. Pre-created directories are never pruned.
+     * Has no effect for other layouts.
+     *
+     * @since 1.3
+     * @param precreateDirectories true to pre-create the directory tree
+     */
+    @Inject(optional = true)
+    public void setPrecreateDirectories(
+        @Named(FileSystemStoreConfig.PRECREATE_DIRECTORIES) boolean precreateDirectories) {
+        this.precreateDirectories = precreateDirectories;
+    }
+
+    /**
+     * Sets the layout this store is being migrated from. Files which are not present
+     * in the current layout are looked up in the legacy layout.
+     *
+     * @since 1.3
+     * @param identifier the previous file identifier
+     * @see LayoutMigration
+     */
+    @Inject(optional = true)
+    public void setLegacyFileIdentifier(
+        @Named(FileSystemStoreConfig.LEGACY_FILE_IDENTIFIER) @Nullable FileIdentifier identifier) {
+        this.legacyFileIdentifier = identifier;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public FileIdentifier getFileIdentifier() {
+        return fileIdentifier;
+    }
+
+    @Nullable
+    public FileIdentifier getLegacyFileIdentifier() {
+        return legacyFileIdentifier;
+    }
+
+    public StoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public synchronized void initialize() throws LifecycleException {
+        if (precreateDirectories && !directoriesPinned) {
+            try {
+                precreateDirectories();
+            } catch (IOException e) {
+                throw new LifecycleException(e);
+            }
+        }
+        if (jmxName != null && objectName == null) {
+            try {
+                final ObjectName name = new ObjectName(StoreMetrics.DOMAIN + ":type=FileSystemStore,name=" +
+                    ObjectName.quote(jmxName));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+                objectName = name;
+            } catch (JMException e) {
+                throw new LifecycleException(e);
+            }
+        }
+        if (coldDirectory != null && !coldTierOpen) {
+            Preconditions.checkState(legacyFileIdentifier == null, "Tiers can not be used during a migration");
+            try {
+                openColdTier();
+            } catch (IOException e) {
+                throw new LifecycleException(e);
+            }
+            if (tierBytesPerSecond > 0) {
+                mover = new Thread(new TierMover(this, promotions, tierBytesPerSecond, tierInterval,
+                    tierIntervalUnit), "store-mover-" + directory.getName());
+                mover.setDaemon(true);
+                mover.setPriority(Thread.MIN_PRIORITY);
+                mover.start();
+            }
+        }
+        if ((deferredDelete || tombstones != null) && reaper == null) {
+            // resolving files requires the configured layouts and the cold tier
+            reaper = new Thread(new Reaper(this, reaperQueue, reaperBatchSize, reaperRate),
+                "store-reaper-" + directory.getName());
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+        if ((trackCapacity || quotaBytes > 0 || quotaObjects > 0) && capacity == null) {
+            final CapacityTracker tracker = new CapacityTracker(root.resolve(CAPACITY));
+            final boolean reconciled;
+            try {
+                reconciled = tracker.load();
+            } catch (IOException e) {
+                throw new LifecycleException(e);
+            }
+            if (!reconciled) {
+                tracker.beginReconcile();
+            }
+            capacity = tracker;
+            capacityThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!reconciled) {
+                        try {
+                            tracker.reconcile(scan());
+                        } catch (IOException e) {
+                            LOG.error("Unable to reconcile capacity of " + directory, e);
+                            tracker.abortReconcile();
+                        } catch (RuntimeException e) {
+                            LOG.error("Unable to reconcile capacity of " + directory, e);
+                            tracker.abortReconcile();
+                        }
+                    }
+                    try {
+                        while (true) {
+                            TimeUnit.NANOSECONDS.sleep(CAPACITY_PERSIST_INTERVAL);
+                            try {
+                                tracker.persist();
+                            } catch (IOException e) {
+                                LOG.warn("Unable to persist capacity of " + directory, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        LOG.debug("Capacity tracking of {} stopped", directory);
+                    }
+                }
+
+            }, "store-capacity-" + directory.getName());
+            capacityThread.setDaemon(true);
+            capacityThread.setPriority(Thread.MIN_PRIORITY);
+            capacityThread.start();
+        }
+        if (scrubBytesPerSecond > 0 && scrubber == null) {
+            scrubber = new Thread(new Scrubber(this, scrubBytesPerSecond, scrubInterval, scrubIntervalUnit,
+                scrubListener), "store-scrubber-" + directory.getName());
+            scrubber.setDaemon(true);
+            scrubber.setPriority(Thread.MIN_PRIORITY);
+            scrubber.start();
+        }
+    }
+
+    /**
+     * Opens the cold tier without walking it. Blobs found in both tiers are left over by
+     * an interrupted move, which only removes the source once the copy is complete, so
+     * the hot copy takes precedence and the cold one is removed once it is encountered.
+     */
+    private void openColdTier() throws IOException {
+        Files.createDirectories(coldRoot);
+        final Path coldStaging = coldRoot.resolve(STAGING);
+        if (Files.isDirectory(coldStaging)) {
+            LOG.info("Removing incomplete files in {}", coldStaging);
+            FileUtils.cleanDirectory(coldStaging.toFile());
+        }
+        accesses = new AccessSketch(ACCESS_COUNTERS);
+        coldTierOpen = true;
+        LOG.info("Opened cold tier {}", coldDirectory);
+    }
+
+    private void precreateDirectories() throws IOException {
+        if (!(fileIdentifier instanceof HashFileIdentifier)) {
+            LOG.warn("Unable to pre-create directories of {}, no fixed layout", fileIdentifier);
+            return;
+        }
+        final List<File> leaves = ((HashFileIdentifier) fileIdentifier).toDirectories(directory);
+        Preconditions.checkState(leaves.size() <= MAX_KNOWN_DIRECTORIES,
+            "%s has more than %s directories", fileIdentifier, MAX_KNOWN_DIRECTORIES);
+        LOG.info("Pre-creating {} directories in {}", leaves.size(), directory);
+        // disables pruning before the first directory exists
+        directoriesPinned = true;
+        for (File leaf : leaves) {
+            final Path path = leaf.toPath();
+            Files.createDirectories(path);
+            directories.add(path);
+        }
+    }
+
+    @Override
+    public String create(InputStream stream) throws IOException {
+        Preconditions.checkNotNull(stream, "Stream");
+        final String uuid = generator.generate();
+        create(stream, uuid);
+        return uuid;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     *   The content is written to a temporary file in the staging directory first
+     *   and linked into place once it is complete, so readers never see a partially
+     *   written file. Depending on the configured {@link Durability} the file and
+     *   its directory are forced to disk before this method returns.
+     * </p>
+     */
+    @Override
+    public void create(InputStream stream, String identifier) throws IOException {
+        final long started = System.nanoTime();
+        long written = 0;
+        boolean success = false;
+        try {
+            written = store(stream, identifier);
+            success = true;
+        } finally {
+            metrics.create.record(started, written, success);
+        }
+    }
+
+    private long store(InputStream stream, String identifier) throws IOException {
+        return store(stream, identifier, codec, false);
+    }
+
+    /**
+     * Writes the given stream to a temporary file and publishes it.
+     *
+     * @param stream the content
+     * @param identifier the identifier
+     * @param current the codec, null to store the content as is
+     * @param framed whether content stored as is gets an identity header
+     * @return the number of bytes read from the stream
+     * @throws IOException if storing failed
+     */
+    private long store(InputStream stream, String identifier, @Nullable BlobCodec current, boolean framed)
+        throws IOException {
+        Preconditions.checkNotNull(stream, "Stream");
+        final File file = getFile(identifier);
+        checkAbsent(identifier, file);
+        LOG.trace("Storing {} to {}", stream, file);
+
+        final Path target = file.toPath();
+        final Path temp = staging.resolve(UUID.randomUUID().toString() + TEMP_SUFFIX);
+        boolean published = false;
+        final long written;
+        final long stored;
+        final SlabCache slabs = slabCacheWriteThrough ? slabCache : null;
+        final CapturingInputStream capture;
+
+        final CapacityTracker tracker = capacity;
+        if (tracker != null) {
+            tracker.reserveObject(quotaObjects);
+        }
+        // reserves bytes while reading, so concurrent creates can not exceed the quota
+        final QuotaInputStream quota = tracker == null || quotaBytes == 0 ? null :
+            new QuotaInputStream(stream, tracker, quotaBytes);
+        final InputStream limited = quota == null ? stream : quota;
+
+        try {
+            final FileChannel channel = openTemp(temp);
+            try {
+                // the checksum is computed while copying
+                final ChecksumInputStream source = checksumType == null ? null :
+                    new ChecksumInputStream(limited, checksumType.newDigest(), identifier, null);
+                final InputStream checked = source == null ? limited : source;
+                capture = slabs == null ? null : new CapturingInputStream(checked, slabs.getMaxBlobSize());
+                final InputStream input = capture == null ? checked : capture;
+                if (current != null) {
+                    written = encode(input, channel, current);
+                } else if (framed) {
+                    written = frame(input, channel);
+                } else {
+                    written = ingest(input, channel);
+                }
+                if (source != null) {
+                    Checksums.write(temp, source.getChecksum());
+                }
+                force(channel);
+                stored = channel.size();
+            } finally {
+                channel.close();
+            }
+
+            LOG.trace("Applying unix owner {} and permissions {} to {}", new Object[] {
+                unixOwner, unixPermissions, temp
+            });
+            unixAttributes.apply(temp);
+
+            final Path created = place(temp, target, identifier);
+            published = true;
+            if (tracker != null) {
+                // replaces the reserved content length with the stored size
+                tracker.add(0, stored - (quota == null ? 0 : quota.getReserved()));
+            }
+
+            final ByteBuffer captured = capture == null ? null : capture.getCaptured();
+            if (captured != null) {
+                slabs.put(identifier, captured);
+                if (!file.exists()) {
+                    // deleted concurrently, the invalidation may have happened before our put
+                    slabs.invalidate(identifier);
+                }
+            }
+
+            if (durability == Durability.DIRECTORY || durability == Durability.GROUP) {
+                forceDirectories(target.getParent(), created);
+            }
+        } finally {
+            if (!published) {
+                if (tracker != null) {
+                    tracker.add(-1, quota == null ? 0 : -quota.getReserved());
+                }
+                Files.deleteIfExists(temp);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Fails early if the given identifier is present, reaping it first if it has been
+     * deleted but not yet reaped. Publishing detects duplicates anyway, the checks only
+     * avoid writing content in vain.
+     *
+     * @param identifier the identifier
+     * @param file the file in the current layout
+     * @throws IOException if reaping or reading the index failed
+     * @throws IllegalStateException if the identifier is present
+     */
+    private void checkAbsent(String identifier, File file) throws IOException {
+        if (isBuried(identifier)) {
+            reap(Collections.singleton(identifier));
+        }
+        Preconditions.checkState(!isCold(identifier), "File %s is already present", file);
+        if (legacyFileIdentifier != null) {
+            Preconditions.checkState(!resolveFile(identifier).exists(), "File %s is already present", file);
+        } else if (indexed) {
+            Preconditions.checkState(!getIndex().contains(identifier), "File %s is already present", file);
+        }
+    }
+
+    /**
+     * Moves the given file into this store. Files on the same file system as the store
+     * are renamed, so no content is copied, other files are copied as is and deleted
+     * afterwards. Content is never compressed, only content which could be mistaken for
+     * a blob header is copied behind an uncompressed header. Owner, permissions and
+     * checksums are applied like for any other created blob. The file is handed back
+     * if importing fails after it has been renamed. After a crash in between, it is
+     * kept in the staging directory with the suffix {@value #IMPORT_SUFFIX}.
+     *
+     * @since 1.3
+     * @param file the file, which does not exist at its original location afterwards
+     * @param identifier the identifier
+     * @throws IOException if importing failed
+     * @throws IllegalStateException if the identifier is already present
+     * @throws IllegalArgumentException if the file is not a regular file
+     */
+    public void importFile(Path file, String identifier) throws IOException {
+        final long started = System.nanoTime();
+        long size = 0;
+        boolean success = false;
+        try {
+            Preconditions.checkNotNull(file, "File");
+            Preconditions.checkNotNull(identifier, "Identifier");
+            size = adopt(file, identifier);
+            success = true;
+        } finally {
+            metrics.create.record(started, size, success);
+        }
+    }
+
+    private long adopt(Path file, String identifier) throws IOException {
+        Preconditions.checkArgument(Files.isRegularFile(file), "%s is not a regular file", file);
+        checkAbsent(identifier, getFile(identifier));
+        if (startsWithHeader(file)) {
+            LOG.trace("{} could be mistaken for a header, copying it behind one", file);
+            return copyIn(file, identifier, true);
+        }
+
+        final long size = Files.size(file);
+        final CapacityTracker tracker = capacity;
+        reserve(tracker, size);
+        final Path temp = staging.resolve(UUID.randomUUID().toString() + IMPORT_SUFFIX);
+        try {
+            moveToStaging(file, temp);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.trace("{} is on a different file system, copying it", file);
+            release(tracker, size);
+            return copyIn(file, identifier, false);
+        } catch (IOException e) {
+            release(tracker, size);
+            throw e;
+        }
+
+        boolean published = false;
+        try {
+            unixAttributes.apply(temp);
+            if (checksumType != null) {
+                Checksums.write(temp, checksumOf(temp, identifier));
+            }
+            forceFile(temp);
+            final Path created = place(temp, getFile(identifier).toPath(), identifier);
+            published = true;
+            commit(identifier, created);
+        } finally {
+            if (!published) {
+                release(tracker, size);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    LOG.warn("Unable to move " + temp + " back to " + file, e);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copies the content of the given file without compressing it and deletes the file.
+     */
+    private long copyIn(Path file, String identifier, boolean framed) throws IOException {
+        // transferred by the kernel
+        final InputStream stream = new FileInputStream(file.toFile());
+        final long written;
+        try {
+            written = store(stream, identifier, null, framed);
+        } finally {
+            stream.close();
+        }
+        Files.delete(file);
+        return written;
+    }
+
+    /**
+     * Checks whether the given file starts like a {@link BlobHeader}, in which case
+     * it can not be stored without one.
+     */
+    private boolean startsWithHeader(Path file) throws IOException {
+        final byte[] head = new byte[BlobHeader.SIZE];
+        final InputStream stream = Files.newInputStream(file);
+        try {
+            int length = 0;
+            while (length < head.length) {
+                final int read = stream.read(head, length, head.length - length);
+                if (read == -1) break;
+                length += read;
+            }
+            return BlobHeader.isAmbiguous(head, length);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void moveToStaging(final Path file, final Path temp) throws IOException {
+        inStaging(file, new StagingOperation<Void>() {
+
+            @Override
+            public Void apply() throws IOException {
+                Files.move(file, temp, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            }
+
+        });
+    }
+
+    /**
+     * Runs an operation which creates a file in the staging directory. Staging is created
+     * lazily and removed when the store becomes empty, so it is created again if missing.
+     *
+     * @param source the file the operation reads, null if none
+     * @param operation the operation
+     * @return the result of the operation
+     * @throws IOException if the operation failed, NoSuchFileException if the source is missing
+     */
+    private <T> T inStaging(@Nullable Path source, StagingOperation<T> operation) throws IOException {
+        int attempt = 0;
+        while (true) {
+            try {
+                return operation.apply();
+            } catch (NoSuchFileException e) {
+                if (source != null && Files.notExists(source) || ++attempt == MAX_ATTEMPTS) throw e;
+                try {
+                    Files.createDirectory(staging);
+                } catch (FileAlreadyExistsException ignored) {
+                    LOG.trace("Staging directory {} has been created concurrently", staging);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of the given blob under a new identifier. Both identifiers share
+     * the same file using a hard link, which is safe because blobs are never modified.
+     * If linking is not possible, e.g. because the source lives in a cold tier on
+     * another file system, the file is copied by the kernel, keeping the checksum, and
+     * owner and permissions are applied.
+     *
+     * @since 1.3
+     * @param source the identifier of the existing blob
+     * @param target the new identifier
+     * @throws IOException if copying failed
+     * @throws IllegalStateException if the source does not exist or the target already exists
+     */
+    public void copy(String source, String target) throws IOException {
+        final long started = System.nanoTime();
+        long size = 0;
+        boolean success = false;
+        try {
+            Preconditions.checkNotNull(source, "Source");
+            Preconditions.checkNotNull(target, "Target");
+            size = duplicate(source, target);
+            success = true;
+        } finally {
+            metrics.create.record(started, size, success);
+        }
+    }
+
+    private long duplicate(String source, String target) throws IOException {
+        final File file = resolveFile(source);
+        Preconditions.checkState(file.exists() && !isBuried(source), "%s does not exist", file);
+        checkAbsent(target, getFile(target));
+
+        final long size = file.length();
+        final CapacityTracker tracker = capacity;
+        reserve(tracker, size);
+        final Path temp = staging.resolve(UUID.randomUUID().toString() + TEMP_SUFFIX);
+        boolean published = false;
+        try {
+            if (!link(file.toPath(), temp)) {
+                LOG.trace("Unable to link {}, copying it", file);
+                copyFile(file.toPath(), temp);
+                unixAttributes.apply(temp);
+                forceFile(temp);
+            }
+            final Path created = place(temp, getFile(target).toPath(), target);
+            published = true;
+            commit(target, created);
+        } finally {
+            if (!published) {
+                release(tracker, size);
+                Files.deleteIfExists(temp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Links the given file into the staging directory.
+     *
+     * @return true if linked, false if hard links are not possible
+     * @throws IllegalStateException if the file has been deleted concurrently
+     */
+    private boolean link(final Path file, final Path temp) throws IOException {
+        try {
+            return inStaging(file, new StagingOperation<Boolean>() {
+
+                @Override
+                public Boolean apply() throws IOException {
+                    try {
+                        Files.createLink(temp, file);
+                        return Boolean.TRUE;
+                    } catch (NoSuchFileException e) {
+                        throw e;
+                    } catch (UnsupportedOperationException e) {
+                        return Boolean.FALSE;
+                    } catch (FileSystemException e) {
+                        // e.g. EXDEV across file systems or EMLINK
+                        return Boolean.FALSE;
+                    }
+                }
+
+            }).booleanValue();
+        } catch (NoSuchFileException e) {
+            if (Files.notExists(file)) {
+                throw new IllegalStateException(String.format("%s does not exist", file), e);
+            }
+            throw e;
+        }
+    }
+
+    private void copyFile(Path file, Path temp) throws IOException {
+        final FileChannel source;
+        try {
+            source = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new IllegalStateException(String.format("%s does not exist", file), e);
+        }
+        try {
+            final FileChannel target = openTemp(temp);
+            try {
+                final long size = source.size();
+                long transferred = 0;
+                while (transferred < size) {
+                    final long count = source.transferTo(transferred, size - transferred, target);
+                    if (count <= 0) break;
+                    transferred += count;
+                }
+            } finally {
+                target.close();
+            }
+        } finally {
+            source.close();
+        }
+        final String checksum = Checksums.read(file);
+        if (checksum != null) {
+            Checksums.write(temp, checksum);
+        }
+    }
+
+    private String checksumOf(Path file, String identifier) throws IOException {
+        final ChecksumInputStream stream = new ChecksumInputStream(Files.newInputStream(file),
+            checksumType.newDigest(), identifier, null);
+        final ByteBuffer buffer = heapBuffers.acquire();
+        try {
+            final byte[] array = buffer.array();
+            while (stream.read(array) != -1) {
+                // only digesting
+            }
+            return stream.getChecksum();
+        } finally {
+            heapBuffers.release(buffer);
+            stream.close();
+        }
+    }
+
+    private void forceFile(Path file) throws IOException {
+        if (durability == Durability.NONE) return;
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        try {
+            force(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Forces the directories of a published blob like {@link #store(InputStream, String)}
+     * does. The index has already been updated by {@link #place(Path, Path, String)}.
+     */
+    private void commit(String identifier, @Nullable Path created) throws IOException {
+        final Path target = getFile(identifier).toPath();
+        if (durability == Durability.DIRECTORY || durability == Durability.GROUP) {
+            forceDirectories(target.getParent(), created);
+        }
+    }
+
+    private void reserve(@Nullable CapacityTracker tracker, long size) throws QuotaExceededException {
+        if (tracker == null) return;
+        tracker.reserveObject(quotaObjects);
+        try {
+            tracker.reserveBytes(size, quotaBytes);
+        } catch (QuotaExceededException e) {
+            tracker.add(-1, 0);
+            throw e;
+        }
+    }
+
+    private void release(@Nullable CapacityTracker tracker, long size) {
+        if (tracker != null) {
+            tracker.add(-1, -size);
+        }
+    }
+
+    /**
+     * Copies the given stream to the given channel. Plain {@link FileInputStream}s are
+     * transferred by the kernel, streams which are channels themselves are copied
+     * through a pooled direct buffer and all other streams through a pooled heap buffer.
+     *
+     * @param input the content
+     * @param target the temporary file
+     * @return the number of bytes copied
+     * @throws IOException if reading or writing failed
+     */
+    private long ingest(InputStream input, FileChannel target) throws IOException {
+        // subclasses may alter the content read from the file
+        if (input.getClass() == FileInputStream.class) {
+            return transferFrom(((FileInputStream) input).getChannel(), target);
+        } else if (input instanceof ReadableByteChannel) {
+            return drain((ReadableByteChannel) input, target);
+        }
+
+        final ByteBuffer buffer = heapBuffers.acquire();
+        try {
+            final byte[] array = buffer.array();
+            long copied = 0;
+            int read;
+            while ((read = input.read(array)) != -1) {
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit(read);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                copied += read;
+            }
+            return copied;
+        } finally {
+            heapBuffers.release(buffer);
+        }
+    }
+
+    private long transferFrom(FileChannel source, FileChannel target) throws IOException {
+        final long length = source.size() - source.position();
+        final long start = target.position();
+        long transferred = 0;
+        while (transferred < length) {
+            final long count = target.transferFrom(source, start + transferred, length - transferred);
+            if (count <= 0) break;
+            transferred += count;
+        }
+        // picks up anything appended in the meantime
+        target.position(start + transferred);
+        return transferred + drain(source, target);
+    }
+
+    /**
+     * Copies the given stream as is behind an identity header, for content which
+     * would be mistaken for a header otherwise.
+     */
+    private long frame(InputStream input, FileChannel channel) throws IOException {
+        channel.write(new BlobHeader(BlobHeader.IDENTITY, 0).toBuffer());
+        final long written = ingest(input, channel);
+        channel.write(new BlobHeader(BlobHeader.IDENTITY, written).toBuffer(), 0);
+        return written;
+    }
+
+    private long drain(ReadableByteChannel source, FileChannel target) throws IOException {
+        final ByteBuffer buffer = buffers.acquire();
+        try {
+            long copied = 0;
+            while (source.read(buffer) != -1) {
+                ((Buffer) buffer).flip();
+                while (buffer.hasRemaining()) {
+                    copied += target.write(buffer);
+                }
+                ((Buffer) buffer).clear();
+            }
+            return copied;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the given stream using the given codec, unless a sample of the first
+     * bytes does not compress well. Content which is stored as is only gets a header
+     * if it could be mistaken for one.
+     */
+    private long encode(InputStream stream, FileChannel channel, BlobCodec current) throws IOException {
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        int sampled = 0;
+        while (sampled < sample.length) {
+            final int read = stream.read(sample, sampled, sample.length - sampled);
+            if (read == -1) break;
+            sampled += read;
+        }
+
+        final OutputStream output = new CloseShieldOutputStream(Channels.newOutputStream(channel));
+        final byte id;
+        final long written;
+        if (isCompressible(sample, sampled, current)) {
+            id = current.getId();
+            channel.write(new BlobHeader(id, 0).toBuffer());
+            final OutputStream encoded = current.encode(output);
+            encoded.write(sample, 0, sampled);
+            written = sampled + ByteStreams.copy(stream, encoded);
+            encoded.close();
+        } else if (BlobHeader.isAmbiguous(sample, sampled)) {
+            id = BlobHeader.IDENTITY;
+            channel.write(new BlobHeader(id, 0).toBuffer());
+            output.write(sample, 0, sampled);
+            written = sampled + ByteStreams.copy(stream, output);
+        } else {
+            output.write(sample, 0, sampled);
+            return sampled + ByteStreams.copy(stream, output);
+        }
+        channel.write(new BlobHeader(id, written).toBuffer(), 0);
+        return written;
+    }
+
+    private boolean isCompressible(byte[] sample, int length, BlobCodec current) throws IOException {
+        if (length < MIN_COMPRESSIBLE) return false;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(length);
+        final OutputStream encoded = current.encode(buffer);
+        encoded.write(sample, 0, length);
+        encoded.close();
+        final boolean compressible = buffer.size() <= length * MAX_COMPRESSION_RATIO;
+        LOG.trace("Sample of {} bytes compressed to {} bytes", length, buffer.size());
+        return compressible;
+    }
+
+    private FileChannel openTemp(final Path temp) throws IOException {
+        final Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        return inStaging(null, new StagingOperation<FileChannel>() {
+
+            @Override
+            public FileChannel apply() throws IOException {
+                return FileChannel.open(temp, options, unixAttributes.asFileAttributes());
+            }
+
+        });
+    }
+
+    /**
+     * Creates the parent directories and publishes the temporary file while holding
+     * the lock of the target directory, so it can not be pruned in between. Parents
+     * further up may still be pruned by deletes in sibling directories, in which case
+     * the directories are created again. The index is updated under the same lock.
+     *
+     * @param temp the complete temporary file
+     * @param target the final location
+     * @param identifier the identifier
+     * @return the top most directory which had to be created, or null if none
+     * @throws IOException if creating directories or publishing failed
+     */
+    @Nullable
+    private Path place(Path temp, Path target, String identifier) throws IOException {
+        final Lock lock = locks.get(target.getParent());
+        lock.lock();
+        try {
+            // may have been demoted after the check in store
+            Preconditions.checkState(!isCold(identifier), "File %s is already present", target);
+            Path created = null;
+            int attempt = 0;
+            while (true) {
+                try {
+                    final Path missing = ensureParentDirectories(target);
+                    if (missing != null && (created == null || missing.getNameCount() < created.getNameCount())) {
+                        created = missing;
+                    }
+                    publish(temp, target);
+                    break;
+                } catch (NoSuchFileException e) {
+                    directories.remove(target.getParent());
+                    if (++attempt == MAX_ATTEMPTS) throw e;
+                    LOG.trace("Parent of {} has been pruned concurrently, retrying", target);
+                } catch (FileAlreadyExistsException e) {
+                    // thrown by createDirectories if a directory vanishes while being checked
+                    directories.remove(target.getParent());
+                    if (++attempt == MAX_ATTEMPTS) throw e;
+                    LOG.trace("Parent of {} has been pruned concurrently, retrying", target);
+                }
+            }
+            if (indexed) {
+                addToIndex(identifier, target);
+            }
+            return created;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a published file to the index. Has to be called while holding the lock of
+     * its directory, so a concurrent delete of the same identifier can not update the
+     * index first. The file is removed again if the index can not be updated.
+     */
+    private void addToIndex(String identifier, Path target) throws IOException {
+        try {
+            getIndex().add(identifier);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates all missing parent directories of the given target unless its parent
+     * is known to exist. Has to be called while holding the lock of the parent.
+     *
+     * @param target the target file
+     * @return the top most directory which had to be created, or null if none
+     * @throws IOException if creating a directory failed
+     */
+    @Nullable
+    private Path ensureParentDirectories(Path target) throws IOException {
+        final Path parent = target.getParent();
+        if (directories.contains(parent)) return null;
+        final Path missing = createParentDirectories(target);
+        if (directories.size() < MAX_KNOWN_DIRECTORIES) {
+            directories.add(parent);
+        }
+        return missing;
+    }
+
+    /**
+     * Creates all missing parent directories of the given target.
+     *
+     * @param target the target file
+     * @return the top most directory which had to be created, or null if all
+     *         directories were already present
+     * @throws IOException if creating a directory failed
+     */
+    @Nullable
+    private Path createParentDirectories(Path target) throws IOException {
+        final Path parent = target.getParent();
+        Path missing = null;
+        for (Path current = parent; !Files.isDirectory(current); current = current.getParent()) {
+            missing = current;
+        }
+        if (missing != null) {
+            Files.createDirectories(parent);
+        }
+        return missing;
+    }
+
+    /**
+     * Atomically moves the temporary file to the target. A hard link is used
+     * because, unlike a rename, it fails if the target has been created concurrently.
+     *
+     * @param temp the complete temporary file
+     * @param target the final location
+     * @throws IOException if publishing failed
+     * @throws IllegalStateException if the target already exists
+     */
+    private void publish(Path temp, Path target) throws IOException {
+        try {
+            Files.createLink(target, temp);
+            Files.delete(temp);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException(String.format("File %s is already present", target), e);
+        } catch (NoSuchFileException e) {
+            // the parent has been pruned concurrently, callers retry
+            throw e;
+        } catch (UnsupportedOperationException e) {
+            LOG.trace("Hard links not supported, renaming {} to {}", temp, target);
+            rename(temp, target);
+        } catch (FileSystemException e) {
+            LOG.trace("Unable to link {} to {}, renaming", temp, target);
+            rename(temp, target);
+        }
+    }
+
+    private void rename(Path temp, Path target) throws IOException {
+        // rename(2) silently replaces existing targets, the directory lock makes this check safe
+        Preconditions.checkState(Files.notExists(target), "File %s is already present", target);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forces the given directory and, if directories were created, all parents up
+     * to and including the parent of the top most created one.
+     *
+     * @param parent the directory containing the new file
+     * @param created the top most created directory, may be null
+     * @throws IOException if forcing failed
+     */
+    private void forceDirectories(Path parent, @Nullable Path created) throws IOException {
+        final Path last = created == null ? parent : created.getParent();
+        for (Path current = parent; current != null; current = current.getParent()) {
+            forceDirectory(current);
+            if (current.equals(last)) break;
+        }
+    }
+
+    private void force(FileChannel channel) throws IOException {
+        // group commits only share directory flushes
+        if (durability != Durability.NONE) {
+            channel.force(true);
+        }
+    }
+
+    private void forceDirectory(Path path) throws IOException {
+        if (durability == Durability.GROUP) {
+            getCommitter().force(path);
+        } else {
+            Directories.force(path);
+        }
+    }
+
+    private GroupCommitter getCommitter() {
+        GroupCommitter current = committer;
+        if (current == null) {
+            synchronized (this) {
+                current = committer;
+                if (current == null) {
+                    current = new GroupCommitter(directory.getName(), groupCommitMaxBatch,
+                        groupCommitMaxWait, groupCommitMaxWaitUnit);
+                    committer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Removes temporary files left by writes which did not complete, e.g.
+     * due to a crash. Only the staging directory has to be listed. Interrupted
+     * imports are kept, they are the only copy of their content.
+     *
+     * @throws IOException if listing or deleting failed
+     */
+    private void sweepStaging() throws IOException {
+        if (Files.notExists(staging)) return;
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(staging);
+        try {
+            for (Path temp : stream) {
+                final String name = temp.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    LOG.info("Removing incomplete file {}", temp);
+                    Files.deleteIfExists(temp);
+                } else if (name.endsWith(IMPORT_SUFFIX)) {
+                    // the caller's only copy, its identifier is unknown
+                    LOG.warn("Keeping interrupted import {}, it has to be imported again", temp);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public ByteBuffer view(String identifier) throws IOException {
+        final long started = System.nanoTime();
+        ByteBuffer buffer = null;
+        try {
+            buffer = mapView(identifier);
+            return buffer;
+        } finally {
+            metrics.view.record(started, buffer == null ? 0 : buffer.remaining(), buffer != null);
+        }
+    }
+
+    private ByteBuffer mapView(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        recordAccess(identifier);
+        final SlabCache slabs = slabCache;
+        if (slabs != null) {
+            final ByteBuffer cached = slabs.get(identifier);
+            if (cached != null) return cached;
+        }
+        final ViewCache cache = viewCache;
+        if (cache != null) {
+            final ByteBuffer cached = cache.get(identifier);
+            if (cached != null) return cached;
+        }
+
+        final File file = resolveFile(identifier);
+        Preconditions.checkState(file.exists() && !isBuried(identifier), "%s does not exist", file);
+        LOG.trace("Reading file from {}", file);
+        final ByteBuffer buffer = map(file.toPath());
+        if (verifyChecksums) {
+            verify(identifier, file.toPath(), buffer);
+        }
+
+        if (slabs != null && buffer.remaining() <= slabs.getMaxBlobSize()) {
+            slabs.put(identifier, buffer);
+            if (!file.exists()) {
+                slabs.invalidate(identifier);
+            }
+            return buffer;
+        }
+
+        if (cache == null) {
+            return buffer;
+        } else {
+            final ByteBuffer view = cache.put(identifier, buffer);
+            if (!file.exists()) {
+                // deleted concurrently, the invalidation may have happened before our put
+                cache.invalidate(identifier);
+            }
+            return view;
+        }
+    }
+
+    /**
+     * Provides a read-only view of a region of the given blob. Only the requested
+     * region is mapped, unless the whole file is already held by the view cache.
+     *
+     * @param identifier the identifier
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return a read-only buffer containing exactly the requested region
+     * @throws IOException if mapping failed
+     * @throws IllegalArgumentException if the region exceeds the file
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    public ByteBuffer view(String identifier, long offset, int length) throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            final ByteBuffer buffer = mapRegion(identifier, offset, length);
+            success = true;
+            return buffer;
+        } finally {
+            metrics.view.record(started, length, success);
+        }
+    }
+
+    private ByteBuffer mapRegion(String identifier, long offset, int length) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        recordAccess(identifier);
+        checkRange(offset, length);
+
+        final ViewCache cache = viewCache;
+        if (cache != null) {
+            final ByteBuffer cached = cache.get(identifier);
+            if (cached != null) {
+                checkBounds(offset, length, cached.capacity());
+                ((Buffer) cached).position((int) offset).limit((int) offset + length);
+                return cached.slice();
+            }
+        }
+
+        final FileChannel channel = open(identifier);
+        try {
+            final BlobHeader header = BlobHeader.read(channel);
+            checkBounds(offset, length, sizeOf(channel, header));
+            if (isEncoded(header)) {
+                LOG.trace("Decoding {} bytes at {} of {}", new Object[] {length, offset, identifier});
+                final byte[] bytes = new byte[length];
+                final InputStream stream = decode(channel, header);
+                try {
+                    ByteStreams.skipFully(stream, offset);
+                    ByteStreams.readFully(stream, bytes);
+                } finally {
+                    stream.close();
+                }
+                return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            } else {
+                LOG.trace("Mapping {} bytes at {} of {}", new Object[] {length, offset, identifier});
+                return channel.map(MapMode.READ_ONLY, offsetOf(header) + offset, length).asReadOnlyBuffer();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a stream on a region of the given blob using positional reads,
+     * without mapping the file.
+     *
+     * @param identifier the identifier
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return a stream which has to be closed by the caller
+     * @throws IOException if opening failed
+     * @throws IllegalArgumentException if the region exceeds the file
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    public InputStream read(String identifier, long offset, long length) throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            final InputStream stream = new MeteredInputStream(openRange(identifier, offset, length), metrics.read);
+            success = true;
+            return stream;
+        } finally {
+            // bytes are added as they are consumed
+            metrics.read.record(started, 0, success);
+        }
+    }
+
+    private InputStream openRange(String identifier, long offset, long length) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        recordAccess(identifier);
+        checkRange(offset, length);
+        final FileChannel channel = open(identifier);
+        boolean success = false;
+        try {
+            final BlobHeader header = BlobHeader.read(channel);
+            checkBounds(offset, length, sizeOf(channel, header));
+            final InputStream stream;
+            if (isEncoded(header)) {
+                final InputStream decoded = decode(channel, header);
+                ByteStreams.skipFully(decoded, offset);
+                stream = new LimitedInputStream(decoded, length);
+            } else {
+                stream = new RangeInputStream(channel, offsetOf(header) + offset, length);
+            }
+            success = true;
+            return stream;
+        } finally {
+            if (!success) {
+                channel.close();
+            }
+        }
+    }
+
+    private void checkRange(long offset, long length) {
+        Preconditions.checkArgument(offset >= 0, "Offset must not be negative");
+        Preconditions.checkArgument(length >= 0, "Length must not be negative");
+    }
+
+    private void checkBounds(long offset, long length, long size) {
+        Preconditions.checkArgument(offset + length <= size,
+            "Range %s+%s exceeds size %s", offset, length, size);
+    }
+
+    private ByteBuffer map(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final BlobHeader header = BlobHeader.read(channel);
+            if (isEncoded(header)) {
+                Preconditions.checkState(header.getLength() <= Integer.MAX_VALUE,
+                    "%s is too large to be decoded into memory", path);
+                final byte[] bytes = new byte[(int) header.getLength()];
+                final InputStream stream = decode(channel, header);
+                try {
+                    ByteStreams.readFully(stream, bytes);
+                } finally {
+                    stream.close();
+                }
+                return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            }
+
+            final long offset = offsetOf(header);
+            final long length = channel.size() - offset;
+            final SlabCache slabs = slabCache;
+            if (slabs != null && length <= slabs.getMaxBlobSize()) {
+                // small blobs are cheaper to read than to map
+                final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) == -1) break;
+                }
+                ((Buffer) buffer).flip();
+                return buffer.asReadOnlyBuffer();
+            } else {
+                // the mapping stays valid after the channel has been closed
+                return channel.map(MapMode.READ_ONLY, offset, length);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void verify(String identifier, Path path, ByteBuffer content) throws IOException {
+        final String expected = Checksums.read(path);
+        if (expected == null) return;
+        final BlobDigest digest = ChecksumType.of(expected).newDigest();
+        digest.update(content.duplicate());
+        final String actual = digest.finish();
+        if (!expected.equals(actual)) {
+            throw new ChecksumMismatchException(identifier, expected, actual);
+        }
+    }
+
+    private static boolean isEncoded(@Nullable BlobHeader header) {
+        return header != null && !header.isIdentity();
+    }
+
+    private static long offsetOf(@Nullable BlobHeader header) {
+        return header == null ? 0 : BlobHeader.SIZE;
+    }
+
+    private static long sizeOf(FileChannel channel, @Nullable BlobHeader header) throws IOException {
+        return header == null ? channel.size() : header.getLength();
+    }
+
+    private BlobCodec codecOf(BlobHeader header) {
+        final BlobCodec decoder = codecs.get(header.getCodec());
+        Preconditions.checkState(decoder != null, "No codec registered for id %s", header.getCodec());
+        return decoder;
+    }
+
+    /**
+     * Opens a decoding stream on the content of the given encoded file.
+     * Closing the stream closes the channel.
+     */
+    private InputStream decode(FileChannel channel, BlobHeader header) throws IOException {
+        final long length = channel.size() - BlobHeader.SIZE;
+        return codecOf(header).decode(new RangeInputStream(channel, BlobHeader.SIZE, length));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     *   Encoded blobs are decoded while reading.
+     * </p>
+     */
+    @Override
+    public InputStream read(String identifier) throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            Preconditions.checkNotNull(identifier, "Identifier");
+            recordAccess(identifier);
+            final FileChannel channel = open(identifier);
+            try {
+                final BlobHeader header = BlobHeader.read(channel);
+                final InputStream content = openContent(channel, header);
+                final InputStream stream;
+                if (verifyChecksums) {
+                    final String expected = Checksums.read(resolveFile(identifier).toPath());
+                    stream = expected == null ? content :
+                        new ChecksumInputStream(content, ChecksumType.of(expected).newDigest(), identifier, expected);
+                } else {
+                    stream = content;
+                }
+                success = true;
+                return new MeteredInputStream(stream, metrics.read);
+            } finally {
+                if (!success) {
+                    channel.close();
+                }
+            }
+        } finally {
+            // bytes are added as they are consumed
+            metrics.read.record(started, 0, success);
+        }
+    }
+
+    /**
+     * Opens a stream on the decoded content of the given blob, without recording
+     * metrics or verifying checksums.
+     *
+     * @param identifier the identifier
+     * @return a stream which has to be closed by the caller
+     * @throws IOException if opening failed
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    InputStream openContent(String identifier) throws IOException {
+        final FileChannel channel = open(identifier);
+        boolean success = false;
+        try {
+            final InputStream stream = openContent(channel, BlobHeader.read(channel));
+            success = true;
+            return stream;
+        } finally {
+            if (!success) {
+                channel.close();
+            }
+        }
+    }
+
+    private InputStream openContent(FileChannel channel, @Nullable BlobHeader header) throws IOException {
+        if (isEncoded(header)) {
+            return decode(channel, header);
+        } else {
+            final long offset = offsetOf(header);
+            return new RangeInputStream(channel, offset, channel.size() - offset);
+        }
+    }
+
+    /**
+     * Provides the checksum stored for the given blob.
+     *
+     * @since 1.3
+     * @param identifier the identifier
+     * @return the checksum, prefixed by the name of its {@link ChecksumType}, or null
+     *         if the blob has been created without checksum
+     * @throws IOException if reading the checksum failed
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    @Nullable
+    public String getChecksum(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        final File file = resolveFile(identifier);
+        Preconditions.checkState(file.exists() && !isBuried(identifier), "%s does not exist", file);
+        return Checksums.read(file.toPath());
+    }
+
+    /**
+     * Provides the name of the codec the given blob has been encoded with.
+     *
+     * @since 1.3
+     * @param identifier the identifier
+     * @return the name of the codec, null if the blob is stored as is
+     * @throws IOException if reading the header failed
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    @Nullable
+    public String getEncoding(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        final FileChannel channel = open(identifier);
+        try {
+            final BlobHeader header = BlobHeader.read(channel);
+            return isEncoded(header) ? codecOf(header).getName() : null;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a stream on the content of the given blob as stored, without decoding,
+     * for clients which accept the encoding reported by {@link #getEncoding(String)}.
+     *
+     * @since 1.3
+     * @param identifier the identifier
+     * @return a stream which has to be closed by the caller
+     * @throws IOException if opening failed
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    public InputStream readEncoded(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        recordAccess(identifier);
+        final FileChannel channel = open(identifier);
+        boolean success = false;
+        try {
+            final long offset = offsetOf(BlobHeader.read(channel));
+            final InputStream stream = new RangeInputStream(channel, offset, channel.size() - offset);
+            success = true;
+            return stream;
+        } finally {
+            if (!success) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Transfers the complete content of the given blob to the target channel.
+     *
+     * @param identifier the identifier
+     * @param target the target channel
+     * @return the number of bytes transferred
+     * @throws IOException if transferring failed
+     * @throws IllegalStateException if the identifier does not exist
+     * @see #transferTo(String, long, long, WritableByteChannel)
+     */
+    public long transferTo(String identifier, WritableByteChannel target) throws IOException {
+        return transferTo(identifier, 0, Long.MAX_VALUE, target);
+    }
+
+    /**
+     * Transfers a range of the given blob to the target channel. Socket and file channels
+     * use {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which allows the
+     * kernel to copy without passing through user space. Other channels are fed using
+     * pooled direct buffers. Channels in non-blocking mode are not supported.
+     *
+     * @param identifier the identifier
+     * @param position the position of the first byte
+     * @param count the maximum number of bytes, ranges exceeding the file are cut
+     * @param target the target channel
+     * @return the number of bytes transferred
+     * @throws IOException if transferring failed
+     * @throws IllegalArgumentException if position or count are negative, position exceeds the size
+     *         or the target is in non-blocking mode
+     * @throws IllegalStateException if the identifier does not exist
+     */
+    public long transferTo(String identifier, long position, long count, WritableByteChannel target)
+        throws IOException {
+        final long started = System.nanoTime();
+        long transferred = 0;
+        boolean success = false;
+        try {
+            transferred = transferFile(identifier, position, count, target);
+            success = true;
+            return transferred;
+        } finally {
+            metrics.read.record(started, transferred, success);
+        }
+    }
+
+    private long transferFile(String identifier, long position, long count, WritableByteChannel target)
+        throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        Preconditions.checkNotNull(target, "Target");
+        Preconditions.checkArgument(position >= 0, "Position must not be negative");
+        Preconditions.checkArgument(count >= 0, "Count must not be negative");
+        if (target instanceof SelectableChannel) {
+            // would have to be polled until it accepts more
+            Preconditions.checkArgument(((SelectableChannel) target).isBlocking(),
+                "%s is in non-blocking mode", target);
+        }
+        recordAccess(identifier);
+
+        final FileChannel channel = open(identifier);
+        try {
+            final BlobHeader header = BlobHeader.read(channel);
+            final long size = sizeOf(channel, header);
+            Preconditions.checkArgument(position <= size, "Position %s exceeds size %s", position, size);
+            final long length = Math.min(count, size - position);
+            LOG.trace("Transferring {} bytes of {} to {}", new Object[] {length, identifier, target});
+            if (isEncoded(header)) {
+                final InputStream stream = decode(channel, header);
+                try {
+                    ByteStreams.skipFully(stream, position);
+                    return ByteStreams.copy(new LimitedInputStream(stream, length), Channels.newOutputStream(target));
+                } finally {
+                    stream.close();
+                }
+            } else if (target instanceof SocketChannel || target instanceof FileChannel) {
+                return transfer(channel, offsetOf(header) + position, length, target);
+            } else {
+                return copy(channel, offsetOf(header) + position, length, target);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private FileChannel open(String identifier) throws IOException {
+        final File file = resolveFile(identifier);
+        Preconditions.checkState(!isBuried(identifier), "%s does not exist", file);
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            final File moved = resolveFile(identifier);
+            if (!moved.equals(file)) {
+                // moved to the other tier concurrently
+                try {
+                    return FileChannel.open(moved.toPath(), StandardOpenOption.READ);
+                } catch (NoSuchFileException ignored) {
+                    LOG.trace("{} has been deleted concurrently", moved);
+                }
+            }
+            throw new IllegalStateException(String.format("%s does not exist", file), e);
+        }
+    }
+
+    /**
+     * Records a read of the given identifier and queues cold blobs which became hot
+     * for promotion.
+     */
+    private void recordAccess(String identifier) {
+        final AccessSketch sketch = accesses;
+        if (sketch == null) return;
+        sketch.increment(identifier);
+        // checks the tier only for blobs which are read frequently
+        if (sketch.frequency(identifier) >= promoteThreshold && isCold(identifier)) {
+            // dropped if the mover is behind, the next read queues it again
+            promotions.offer(identifier);
+        }
+    }
+
+    /**
+     * Removes a cold copy left over by an interrupted move once the hot copy is deleted,
+     * which would make it visible again otherwise. Has to be called while holding the
+     * lock guarding the identifier.
+     */
+    private void deleteColdLeftover(String identifier) throws IOException {
+        if (coldTierOpen && Files.deleteIfExists(getColdFile(identifier).toPath())) {
+            LOG.info("Removed cold copy of {} left over by an interrupted move", identifier);
+        }
+    }
+
+    /**
+     * Checks whether the given identifier only exists in the cold tier. Blobs of the
+     * hot tier are resolved by a single check, only cold blobs require two.
+     */
+    private boolean isCold(String identifier) {
+        return coldTierOpen && !getFile(identifier).exists() && getColdFile(identifier).exists();
+    }
+
+    private File getColdFile(String identifier) {
+        return fileIdentifier.toFile(coldDirectory, identifier);
+    }
+
+    /**
+     * Moves the given blob to the cold tier if it is older than the minimum age and
+     * has not been read recently. The content is copied without holding any lock, the
+     * copy is only published if the blob did not change in the meantime.
+     *
+     * @param identifier the identifier
+     * @return the number of bytes moved or -1 if the blob has not been moved
+     * @throws IOException if moving failed
+     */
+    long demote(String identifier) throws IOException {
+        Preconditions.checkState(coldTierOpen, "No cold tier opened");
+        final Path hot = getFile(identifier).toPath();
+        final Path target = getColdFile(identifier).toPath();
+        if (isBuried(identifier)) return -1;
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(hot, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        if (!isStale(identifier, attributes)) return -1;
+        LOG.trace("Demoting {}", identifier);
+        final Path temp = copyToStaging(hot, coldRoot.resolve(STAGING));
+        if (temp == null) return -1;
+        try {
+            final Lock lock = locks.get(hot.getParent());
+            lock.lock();
+            try {
+                if (isBuried(identifier) || !isUnchanged(hot, attributes) || !isStale(identifier, attributes)) {
+                    LOG.trace("{} has been changed while being demoted", identifier);
+                    return -1;
+                }
+                if (Files.deleteIfExists(target)) {
+                    LOG.info("Removed {}, which has been moved to the hot tier already", target);
+                }
+                linkToTier(temp, target);
+                Files.delete(hot);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        deleteEmptyParent(hot.getParent().toFile());
+        return attributes.size();
+    }
+
+    private boolean isStale(String identifier, BasicFileAttributes attributes) {
+        final long age = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis();
+        return age >= tierMinAgeUnit.toMillis(tierMinAge) && accesses.frequency(identifier) == 0;
+    }
+
+    /**
+     * Moves the given blob back to the hot tier. The content is copied without holding
+     * any lock, the copy is only published if the blob did not change in the meantime.
+     *
+     * @param identifier the identifier
+     * @return the number of bytes moved or -1 if the blob is not in the cold tier
+     * @throws IOException if moving failed
+     */
+    long promote(String identifier) throws IOException {
+        Preconditions.checkState(coldTierOpen, "No cold tier opened");
+        final Path hot = getFile(identifier).toPath();
+        final Path source = getColdFile(identifier).toPath();
+        if (isBuried(identifier) || Files.exists(hot)) return -1;
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        LOG.trace("Promoting {}", identifier);
+        final Path temp = copyToStaging(source, staging);
+        if (temp == null) return -1;
+        try {
+            final Lock lock = locks.get(hot.getParent());
+            lock.lock();
+            try {
+                if (isBuried(identifier) || Files.exists(hot) || !isUnchanged(source, attributes)) {
+                    LOG.trace("{} has been changed while being promoted", identifier);
+                    return -1;
+                }
+                linkToTier(temp, hot);
+                Files.delete(source);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        deleteEmptyParent(source.getParent().toFile());
+        return attributes.size();
+    }
+
+    /**
+     * Checks whether the given file is still the one described by the given attributes.
+     */
+    private boolean isUnchanged(Path file, BasicFileAttributes before) throws IOException {
+        final BasicFileAttributes after;
+        try {
+            after = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return after.size() == before.size() &&
+            after.lastModifiedTime().equals(before.lastModifiedTime()) &&
+            Objects.equal(after.fileKey(), before.fileKey());
+    }
+
+    /**
+     * Copies a blob into the staging directory of the other tier and forces it to disk.
+     * Called without holding any lock.
+     *
+     * @return the copy or null if the source has been deleted concurrently
+     */
+    @Nullable
+    private Path copyToStaging(Path source, Path tierStaging) throws IOException {
+        Files.createDirectories(tierStaging);
+        final Path temp = tierStaging.resolve(UUID.randomUUID().toString() + TEMP_SUFFIX);
+        boolean success = false;
+        try {
+            // keeps modification time and extended attributes, e.g. checksums
+            Files.copy(source, temp, StandardCopyOption.COPY_ATTRIBUTES);
+            final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            unixAttributes.apply(temp);
+            success = true;
+            return temp;
+        } catch (NoSuchFileException e) {
+            if (Files.exists(source)) throw e;
+            LOG.trace("{} has been deleted concurrently", source);
+            return null;
+        } finally {
+            if (!success) Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Links a forced copy into the other tier, including its directory entry, before
+     * the caller removes the source, so a crash always leaves at least one complete copy.
+     * Has to be called while holding the lock of the directory of the hot tier.
+     */
+    private void linkToTier(Path temp, Path target) throws IOException {
+        final Lock lock = locks.get(target.getParent());
+        lock.lock();
+        try {
+            Path created = null;
+            int attempt = 0;
+            while (true) {
+                try {
+                    created = createParentDirectories(target);
+                    publish(temp, target);
+                    break;
+                } catch (NoSuchFileException e) {
+                    if (++attempt == MAX_ATTEMPTS) throw e;
+                    LOG.trace("Parent of {} has been pruned concurrently, retrying", target);
+                }
+            }
+            forceDirectories(target.getParent(), created);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Halves all access counters, called once per pass of the {@link TierMover}.
+     */
+    void decayAccesses() {
+        final AccessSketch sketch = accesses;
+        if (sketch != null) {
+            sketch.decay();
+        }
+    }
+
+    /**
+     * Lazily iterates over all identifiers of the hot tier.
+     *
+     * @return an iterator over the hot identifiers
+     * @throws IOException if listing the store directory failed
+     */
+    Iterator<String> hotIdentifiers() throws IOException {
+        final Iterator<String> identifiers = Iterators.transform(
+            newShardIterator(root, "", Collections.<String>emptyList()), pathToIdentifier);
+        return Iterators.filter(identifiers, new Predicate<String>() {
+
+            @Override
+            public boolean apply(String input) {
+                return !isBuried(input);
+            }
+
+        });
+    }
+
+    private long transfer(FileChannel channel, long position, long length, WritableByteChannel target)
+        throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            final long written = channel.transferTo(position + transferred, length - transferred, target);
+            // blocking targets accept something unless the file has been truncated
+            if (written <= 0) break;
+            transferred += written;
+        }
+        return transferred;
+    }
+
+    private long copy(FileChannel channel, long position, long length, WritableByteChannel target)
+        throws IOException {
+        final ByteBuffer buffer = buffers.acquire();
+        try {
+            long transferred = 0;
+            while (transferred < length) {
+                ((Buffer) buffer).clear();
+                if (length - transferred < buffer.capacity()) {
+                    ((Buffer) buffer).limit((int) (length - transferred));
+                }
+                final int read = channel.read(buffer, position + transferred);
+                if (read == -1) break;
+                ((Buffer) buffer).flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                transferred += read;
+            }
+            return transferred;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Provides the counters of the view cache.
+     *
+     * @return the statistics of the view cache or null if the cache is disabled
+     */
+    @Nullable
+    public CacheStatistics getViewCacheStatistics() {
+        final ViewCache cache = viewCache;
+        return cache == null ? null : cache.getStatistics();
+    }
+
+    /**
+     * Counts all blobs and their sizes. See {@link #scan(ScanVisitor)}.
+     *
+     * @since 1.3
+     * @return the statistics
+     * @throws IOException if walking the directory tree failed
+     */
+    public ScanStatistics scan() throws IOException {
+        return scan(null);
+    }
+
+    /**
+     * Walks the whole directory tree in parallel, using up to the configured number
+     * of batch threads, and counts all blobs and their sizes. Blobs created or
+     * deleted during the scan may or may not be included.
+     *
+     * @since 1.3
+     * @param visitor an optional visitor called for every blob, from several threads
+     * @return the statistics
+     * @throws IOException if walking the directory tree failed
+     */
+    public ScanStatistics scan(@Nullable ScanVisitor visitor) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(batchThreads);
+        try {
+            final StoreScan.Totals totals = pool.invoke(new StoreScan(this, root, true, visitor));
+            if (coldTierOpen) {
+                totals.merge(pool.invoke(new StoreScan(this, coldRoot, true, visitor)));
+            }
+            return totals.toStatistics();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Converts a file found while walking the directory tree to its identifier.
+     *
+     * @param file the file
+     * @return the identifier or null if it has been deleted already
+     */
+    @Nullable
+    String toVisibleIdentifier(Path file) {
+        if (coldRoot != null && file.startsWith(coldRoot)) {
+            final String identifier = fileIdentifier.toIdentifier(coldDirectory, file.toFile());
+            // the hot copy takes precedence
+            return isBuried(identifier) || getFile(identifier).exists() ? null : identifier;
+        }
+        final String identifier = pathToIdentifier.apply(file);
+        return isBuried(identifier) ? null : identifier;
+    }
+
+    /**
+     * Provides the number of blobs and bytes held by this store in constant time.
+     *
+     * @since 1.3
+     * @return the current capacity or null if capacity tracking is disabled or the store
+     *         has not been initialized
+     */
+    @Nullable
+    public StoreCapacity getCapacity() {
+        final CapacityTracker tracker = capacity;
+        return tracker == null ? null : tracker.getCapacity();
+    }
+
+    /**
+     * Provides the counters of the slab cache.
+     *
+     * @since 1.3
+     * @return the statistics of the slab cache or null if the cache is disabled
+     */
+    @Nullable
+    public CacheStatistics getSlabCacheStatistics() {
+        final SlabCache cache = slabCache;
+        return cache == null ? null : cache.getStatistics();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     *   Answers from the identifier index if enabled, otherwise walks the directory tree.
+     * </p>
+     */
+    @Override
+    public Set<String> list() throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            final Set<String> identifiers = indexed ? getIndex().snapshot() : walk();
+            final TombstoneLog buried = tombstones;
+            if (buried != null && !buried.isEmpty()) {
+                identifiers.removeAll(buried.snapshot());
+            }
+            success = true;
+            return identifiers;
+        } finally {
+            metrics.list.record(started, 0, success);
+        }
+    }
+
+    /**
+     * Checks whether the given identifier is present in this store.
+     *
+     * @param identifier the identifier
+     * @return true if a file for the given identifier exists
+     * @throws IOException if loading the index failed
+     */
+    public boolean contains(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (isBuried(identifier)) {
+            return false;
+        } else if (indexed) {
+            return getIndex().contains(identifier);
+        } else {
+            return resolveFile(identifier).exists();
+        }
+    }
+
+    private Set<String> walk() throws IOException {
+        return Sets.newHashSet(iterator(null));
+    }
+
+    /**
+     * Lazily iterates over all identifiers starting with the given prefix. Only the
+     * directories on the current path are held in memory. If the configured
+     * {@link FileIdentifier} is an {@link OrderedFileIdentifier}, only directories
+     * matching the prefix are entered.
+     *
+     * <p>
+     *   Files created or deleted during the iteration may or may not be returned.
+     * </p>
+     *
+     * @param prefix the identifier prefix, may be null
+     * @return an unmodifiable iterator over all matching identifiers
+     * @throws IOException if listing the store directory failed
+     */
+    public Iterator<String> iterator(@Nullable String prefix) throws IOException {
+        final String safePrefix = prefix == null ? "" : prefix;
+        final Iterator<String> identifiers = Iterators.transform(
+            newShardIterator(root, safePrefix, Collections.<String>emptyList()), pathToIdentifier);
+        final Iterator<String> hot = Iterators.filter(filter(identifiers, safePrefix), new Predicate<String>() {
+
+            @Override
+            public boolean apply(String input) {
+                return !isBuried(input);
+            }
+
+        });
+        if (!coldTierOpen) return hot;
+        final Iterator<String> cold = Iterators.transform(
+            newShardIterator(coldRoot, safePrefix, Collections.<String>emptyList()), coldPathToIdentifier);
+        return Iterators.unmodifiableIterator(Iterators.concat(hot, Iterators.filter(
+            filter(cold, safePrefix), new Predicate<String>() {
+
+                @Override
+                public boolean apply(String input) {
+                    // the hot copy takes precedence
+                    return !isBuried(input) && !getFile(input).exists();
+                }
+
+            })));
+    }
+
+    /**
+     * Lists a single page of identifiers starting with the given prefix. Pages are
+     * returned in the order of the underlying directory tree, the token of a returned
+     * page can be used to resume right after it.
+     *
+     * @param prefix the identifier prefix, may be null
+     * @param token the token of the previous page, null for the first page
+     * @param size the maximum number of identifiers
+     * @return the page
+     * @throws IOException if listing failed
+     * @throws IllegalArgumentException if size is not positive
+     */
+    public IdentifierPage list(@Nullable String prefix, @Nullable String token, int size) throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            final IdentifierPage page = listPage(prefix, token, size);
+            success = true;
+            return page;
+        } finally {
+            metrics.list.record(started, 0, success);
+        }
+    }
+
+    private IdentifierPage listPage(@Nullable String prefix, @Nullable String token, int size) throws IOException {
+        Preconditions.checkArgument(size > 0, "Size must be positive");
+        final String safePrefix = prefix == null ? "" : prefix;
+        final List<String> identifiers = Lists.newArrayListWithCapacity(size);
+        if (token == null || !token.startsWith(COLD_TOKEN)) {
+            final List<String> after = token == null ?
+                Collections.<String>emptyList() : Lists.newArrayList(TOKEN_SPLITTER.split(token));
+            final Iterator<Path> files = newShardIterator(root, safePrefix, after);
+
+            Path last = null;
+            while (identifiers.size() < size && files.hasNext()) {
+                final Path file = files.next();
+                final String identifier = pathToIdentifier.apply(file);
+                last = file;
+                if (identifier.startsWith(safePrefix) && !isBuried(identifier)) {
+                    identifiers.add(identifier);
+                }
+            }
+
+            if (files.hasNext()) {
+                return new IdentifierPage(identifiers, TOKEN_JOINER.join(ShardIterator.segments(root, last)));
+            }
+        }
+
+        if (!coldTierOpen) return new IdentifierPage(identifiers, null);
+
+        // the cold tier is paged after all pages of the hot tier
+        final String position = token == null || !token.startsWith(COLD_TOKEN) ?
+            "" : token.substring(COLD_TOKEN.length());
+        final List<String> after = position.length() == 0 ?
+            Collections.<String>emptyList() : Lists.newArrayList(TOKEN_SPLITTER.split(position));
+        final Iterator<Path> files = newShardIterator(coldRoot, safePrefix, after);
+        Path last = null;
+        while (identifiers.size() < size && files.hasNext()) {
+            final Path file = files.next();
+            final String identifier = coldPathToIdentifier.apply(file);
+            last = file;
+            // the hot copy takes precedence
+            if (identifier.startsWith(safePrefix) && !isBuried(identifier) && !getFile(identifier).exists()) {
+                identifiers.add(identifier);
+            }
+        }
+        if (!files.hasNext()) {
+            return new IdentifierPage(identifiers, null);
+        } else if (last == null) {
+            // the page has been filled by the hot tier
+            return new IdentifierPage(identifiers, COLD_TOKEN);
+        } else {
+            final List<String> segments = ShardIterator.segments(coldRoot, last);
+            return new IdentifierPage(identifiers, COLD_TOKEN + TOKEN_JOINER.join(segments));
+        }
+    }
+
+    private ShardIterator newShardIterator(Path base, String prefix, List<String> after) throws IOException {
+        if (prefix.length() == 0 || !(fileIdentifier instanceof OrderedFileIdentifier)) {
+            return new ShardIterator(base, Collections.<String>emptyList(), "", after, RESERVED);
+        } else {
+            final Path file = fileIdentifier.toFile(base.toFile(), prefix).toPath();
+            final List<String> segments = ShardIterator.segments(base, file);
+            final List<String> fixed = segments.subList(0, segments.size() - 1);
+            final String partial = segments.get(segments.size() - 1);
+            return new ShardIterator(base, fixed, partial, after, RESERVED);
+        }
+    }
+
+    private Iterator<String> filter(Iterator<String> identifiers, final String prefix) {
+        if (prefix.length() == 0) return identifiers;
+        return Iterators.filter(identifiers, new Predicate<String>() {
+
+            @Override
+            public boolean apply(String input) {
+                return input.startsWith(prefix);
+            }
+
+        });
+    }
+
+    private FileIndex getIndex() throws IOException {
+        FileIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = new FileIndex(directory.toPath().resolve(INDEX));
+                    if (!current.load()) {
+                        LOG.info("Rebuilding index of {} by scanning", directory);
+                        current.rebuild(walk());
+                    }
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     *   Recursively deletes empty parent directories.
+     * </p>
+     */
+    @Override
+    public void delete(String identifier) throws IOException {
+        final long started = System.nanoTime();
+        boolean success = false;
+        try {
+            Preconditions.checkNotNull(identifier, "Identifier");
+            if (deferredDelete) {
+                bury(identifier);
+            } else {
+                final File file = remove(identifier);
+                deleteEmptyParent(file.getParentFile());
+            }
+            success = true;
+        } finally {
+            metrics.delete.record(started, 0, success);
+        }
+    }
+
+    /**
+     * Provides the directory whose lock guards the given identifier. Blobs of the cold
+     * tier are guarded by their directory in the hot tier, which is also locked while
+     * moving them.
+     */
+    private Path guardOf(String identifier) {
+        final File file = legacyFileIdentifier == null ? getFile(identifier) : resolveFile(identifier);
+        return file.getParentFile().toPath();
+    }
+
+    /**
+     * Acquires the lock guarding the given identifier. The guard of a blob in the legacy
+     * layout changes when it is relocated, in which case the new guard is locked instead.
+     *
+     * @param identifier the identifier
+     * @return the acquired lock
+     */
+    private Lock lockGuard(String identifier) {
+        while (true) {
+            final Path guard = guardOf(identifier);
+            final Lock lock = locks.get(guard);
+            lock.lock();
+            if (legacyFileIdentifier == null || guard.equals(guardOf(identifier))) return lock;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a tombstone for the given identifier and hands it to the reaper.
+     *
+     * @param identifier the identifier
+     * @throws IOException if writing the tombstone failed
+     */
+    private void bury(String identifier) throws IOException {
+        final TombstoneLog log = getTombstones();
+        final Lock lock = lockGuard(identifier);
+        try {
+            final File file = resolveFile(identifier);
+            Preconditions.checkState(file.exists(), "%s does not exist", file);
+            final long size = file.length();
+            final boolean added = log.add(identifier, durability != Durability.NONE);
+            Preconditions.checkState(added, "%s does not exist", file);
+            final CapacityTracker tracker = capacity;
+            if (tracker != null) {
+                // buried blobs are invisible already, the reaper does not count again
+                tracker.add(-1, -size);
+            }
+            if (indexed) {
+                getIndex().remove(identifier);
+            }
+        } finally {
+            lock.unlock();
+        }
+        LOG.trace("Buried {}", identifier);
+        if (viewCache != null) {
+            viewCache.invalidate(identifier);
+        }
+        if (slabCache != null) {
+            slabCache.invalidate(identifier);
+        }
+        reaperQueue.add(identifier);
+    }
+
+    private TombstoneLog getTombstones() throws IOException {
+        TombstoneLog current = tombstones;
+        if (current == null) {
+            synchronized (this) {
+                current = tombstones;
+                if (current == null) {
+                    current = new TombstoneLog(root.resolve(TOMBSTONES));
+                    // reaped once the reaper is started by initialize
+                    reaperQueue.addAll(current.load());
+                    tombstones = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Checks whether the given identifier has been deleted but not yet reaped.
+     */
+    private boolean isBuried(String identifier) {
+        final TombstoneLog current = tombstones;
+        return current != null && current.contains(identifier);
+    }
+
+    /**
+     * Removes the files of the given buried identifiers and prunes their directories.
+     * Identifiers which are no longer buried are skipped.
+     *
+     * @param identifiers the identifiers
+     * @throws IOException if updating the tombstone log failed
+     */
+    void reap(Collection<String> identifiers) throws IOException {
+        final TombstoneLog log = getTombstones();
+        final Set<File> parents = Sets.newLinkedHashSet();
+        for (String identifier : identifiers) {
+            final File file;
+            final Lock lock = lockGuard(identifier);
+            try {
+                // may have been reaped by a create of the same identifier
+                if (!log.contains(identifier)) continue;
+                file = resolveFile(identifier);
+                LOG.trace("Reaping {}", file);
+                Files.deleteIfExists(file.toPath());
+                deleteColdLeftover(identifier);
+                log.remove(identifier);
+            } finally {
+                lock.unlock();
+            }
+            parents.add(file.getParentFile());
+        }
+        for (File parent : parents) {
+            if (!parent.isDirectory()) continue;
+            try {
+                deleteEmptyParent(parent);
+            } catch (IOException e) {
+                LOG.warn("Unable to delete empty directory " + parent, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the file of the given identifier without touching its parent directories.
+     *
+     * @param identifier the identifier
+     * @return the deleted file
+     * @throws IOException if deleting failed
+     */
+    private File remove(String identifier) throws IOException {
+        final File file;
+        final Lock lock = lockGuard(identifier);
+        try {
+            file = resolveFile(identifier);
+            Preconditions.checkState(file.exists() && !isBuried(identifier), "%s does not exist", file);
+            LOG.trace("Removing {} from store", file);
+            final long size = file.length();
+            FileUtils.forceDelete(file);
+            deleteColdLeftover(identifier);
+            final CapacityTracker tracker = capacity;
+            if (tracker != null) {
+                tracker.add(-1, -size);
+            }
+            if (indexed) {
+                getIndex().remove(identifier);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (viewCache != null) {
+            viewCache.invalidate(identifier);
+        }
+        if (slabCache != null) {
+            slabCache.invalidate(identifier);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes all given identifiers. Identifiers are grouped by their shard directory
+     * and processed in parallel, empty directories are removed once per touched
+     * directory after all files have been deleted. With deferred deletion enabled,
+     * every identifier is buried like in {@link #delete(String)} and left to the reaper.
+     *
+     * @param identifiers the identifiers to delete
+     * @return the outcome of every identifier
+     * @throws IOException if waiting for the workers has been interrupted
+     */
+    public BatchResult deleteAll(Iterable<String> identifiers) throws IOException {
+        Preconditions.checkNotNull(identifiers, "Identifiers");
+        final Multimap<File, String> groups = LinkedHashMultimap.create();
+        for (String identifier : identifiers) {
+            Preconditions.checkNotNull(identifier, "Identifier");
+            groups.put(resolveFile(identifier).getParentFile(), identifier);
+        }
+
+        final BatchResult result = runBatch(groups, new BatchOperation() {
+
+            @Override
+            public void apply(String identifier) throws IOException {
+                final long started = System.nanoTime();
+                boolean success = false;
+                try {
+                    if (deferredDelete) {
+                        bury(identifier);
+                    } else {
+                        remove(identifier);
+                    }
+                    success = true;
+                } finally {
+                    metrics.delete.record(started, 0, success);
+                }
+            }
+
+        });
+
+        // the reaper prunes the directories of buried identifiers
+        if (deferredDelete) return result;
+        for (File parent : groups.keySet()) {
+            // may have been removed concurrently or while pruning a sibling
+            if (!parent.isDirectory()) continue;
+            try {
+                deleteEmptyParent(parent);
+            } catch (IOException e) {
+                LOG.warn("Unable to delete empty directory " + parent, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates all given identifiers. Entries are grouped by their shard directory
+     * and processed in parallel. Streams are not closed.
+     *
+     * @param streams the contents, keyed by identifier
+     * @return the outcome of every identifier
+     * @throws IOException if waiting for the workers has been interrupted
+     */
+    public BatchResult createAll(final Map<String, ? extends InputStream> streams) throws IOException {
+        Preconditions.checkNotNull(streams, "Streams");
+        final Multimap<File, String> groups = LinkedHashMultimap.create();
+        for (String identifier : streams.keySet()) {
+            Preconditions.checkNotNull(identifier, "Identifier");
+            groups.put(getFile(identifier).getParentFile(), identifier);
+        }
+
+        return runBatch(groups, new BatchOperation() {
+
+            @Override
+            public void apply(String identifier) throws IOException {
+                create(streams.get(identifier), identifier);
+            }
+
+        });
+    }
+
+    private BatchResult runBatch(Multimap<File, String> groups, final BatchOperation operation) throws IOException {
+        final Set<String> succeeded = Sets.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+        if (groups.isEmpty()) return new BatchResult(succeeded, failures);
+
+        final int threads = Math.min(batchThreads, groups.keySet().size());
+        final ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            for (final Collection<String> group : groups.asMap().values()) {
+                service.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        for (String identifier : group) {
+                            try {
+                                operation.apply(identifier);
+                                succeeded.add(identifier);
+                            } catch (IOException e) {
+                                failures.put(identifier, e);
+                            } catch (RuntimeException e) {
+                                failures.put(identifier, e);
+                            }
+                        }
+                    }
+
+                });
+            }
+        } finally {
+            service.shutdown();
+        }
+
+        try {
+            while (!service.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.debug("Waiting for batch of {} identifiers", groups.size());
+            }
+        } catch (InterruptedException e) {
+            service.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for batch", e);
+        }
+
+        LOG.debug("Processed batch of {} identifiers, {} failed", groups.size(), failures.size());
+        return new BatchResult(succeeded, failures);
+    }
+
+    /**
+     * A single operation of a batch.
+     *
+     * @author Willi Schoenborn
+     */
+    private interface BatchOperation {
+
+        void apply(String identifier) throws IOException;
+
+    }
+
+    /**
+     * An operation creating a file in the staging directory.
+     *
+     * @param <T> the type of the result
+     * @author Willi Schoenborn
+     */
+    private interface StagingOperation<T> {
+
+        T apply() throws IOException;
+
+    }
+
+    /**
+     * Provides a file pointing to the target as specified by
+     * the given identifier.
+     *
+     * @param identifier the file identifier
+     * @return a file (may not exist)
+     */
+    private File getFile(String identifier) {
+        return fileIdentifier.toFile(directory, identifier);
+    }
+
+    /**
+     * Provides the file of the given identifier, falling back to the legacy
+     * layout while a migration is in progress.
+     *
+     * @param identifier the file identifier
+     * @return a file (may not exist)
+     */
+    private File resolveFile(String identifier) {
+        final File file = getFile(identifier);
+        if (file.exists()) {
+            return file;
+        } else if (coldTierOpen) {
+            final File coldFile = getColdFile(identifier);
+            return coldFile.exists() ? coldFile : file;
+        }
+        final FileIdentifier legacy = legacyFileIdentifier;
+        if (legacy == null) {
+            return file;
+        } else {
+            final File legacyFile = legacy.toFile(directory, identifier);
+            return legacyFile.exists() ? legacyFile : file;
+        }
+    }
+
+    /**
+     * Moves a file of the legacy layout to its location in the current layout.
+     * The file is linked first, so it stays readable during the whole operation.
+     * The locks of both directories are held until the old file is removed, which
+     * covers the guard of the identifier in either layout.
+     *
+     * @param source a file in either layout
+     * @return true if the file has been moved, false if it already is in the current
+     *         layout or vanished concurrently
+     * @throws IOException if moving failed
+     */
+    boolean relocate(Path source) throws IOException {
+        final FileIdentifier legacy = legacyFileIdentifier;
+        Preconditions.checkState(legacy != null, "No legacy file identifier configured");
+        if (getFile(fileIdentifier.toIdentifier(directory, source.toFile())).toPath().equals(source)) {
+            // already in the current layout
+            return false;
+        }
+        final String identifier = legacy.toIdentifier(directory, source.toFile());
+        final Path target = getFile(identifier).toPath();
+
+        locks.lock(source.getParent(), target.getParent());
+        try {
+            try {
+                createParentDirectories(target);
+                Files.createLink(target, source);
+            } catch (FileAlreadyExistsException e) {
+                if (!Files.isSameFile(source, target)) {
+                    throw new IllegalStateException(String.format(
+                        "%s and %s both exist with different content", source, target), e);
+                }
+            } catch (NoSuchFileException e) {
+                LOG.trace("{} has been deleted concurrently", source);
+                return false;
+            }
+            Files.delete(source);
+        } finally {
+            locks.unlock(source.getParent(), target.getParent());
+        }
+        deleteEmptyParent(source.getParent().toFile());
+        return true;
+    }
+
+    /**
+     * Reads a file from this store.
+     *
+     * <p>
+     *   Blobs which are stored with a {@link BlobHeader}, e.g. because they have been
+     *   compressed, are decoded into a temporary file, which is deleted on exit and may
+     *   be deleted by the caller as soon as it is no longer needed. All other blobs are
+     *   returned as stored and must not be modified.
+     * </p>
+     *
+     * @param identifier the identifier of the binary data being retrieved
+     * @return the file containing the content associated with the given identifier
+     * @throws IOException if file does not exist
+     */
+    public File readFile(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        final File file = storedFile(identifier);
+        final BlobHeader header;
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            header = BlobHeader.read(channel);
+        } finally {
+            channel.close();
+        }
+        if (header == null) {
+            recordAccess(identifier);
+            return file;
+        }
+
+        LOG.trace("Decoding {} into a temporary file", identifier);
+        final File decoded = File.createTempFile("palava-store", TEMP_SUFFIX);
+        decoded.deleteOnExit();
+        boolean success = false;
+        try {
+            // verifies checksums and records the access like any other read
+            final InputStream stream = read(identifier);
+            try {
+                Files.copy(stream, decoded.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                stream.close();
+            }
+            success = true;
+            return decoded;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(decoded.toPath());
+            }
+        }
+    }
+
+    /**
+     * Resolves the file of an existing blob as it is stored, including its header.
+     *
+     * @param identifier the identifier
+     * @return the stored file
+     * @throws FileNotFoundException if the identifier does not exist
+     */
+    File storedFile(String identifier) throws FileNotFoundException {
+        final File file = resolveFile(identifier);
+        if (file.exists() && !isBuried(identifier)) {
+            return file;
+        } else {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Deletes the given directory and its parents as long as they are empty.
+     * Directories are removed using rmdir, which fails atomically if a concurrent
+     * create placed a file in the meantime.
+     *
+     * @param file the directory
+     * @throws IOException if deleting failed for other reasons
+     */
+    private void deleteEmptyParent(File file) throws IOException {
+        Path current = file.toPath();
+        final boolean cold = coldRoot != null && current.startsWith(coldRoot);
+        // pre-created directories stay, staging is created on demand anyway
+        if (directoriesPinned && !cold) return;
+        final Path stop = cold ? coldRoot : root;
+
+        // do not delete configured directory
+        while (!stop.equals(current)) {
+            final Lock lock = locks.get(current);
+            lock.lock();
+            try {
+                Files.delete(current);
+                directories.remove(current);
+                LOG.trace("Deleted empty directory {}", current);
+            } catch (DirectoryNotEmptyException e) {
+                LOG.trace("Keeping non empty directory {}", current);
+                return;
+            } catch (NoSuchFileException e) {
+                directories.remove(current);
+                LOG.trace("Directory {} has already been deleted", current);
+            } finally {
+                lock.unlock();
+            }
+            current = current.getParent();
+        }
+
+        if (!cold) {
+            deleteIdleStaging();
+        }
+    }
+
+    /**
+     * Removes the staging directory if it is the last remaining entry in an
+     * otherwise empty store. Concurrent writers recreate it on demand.
+     */
+    private void deleteIdleStaging() {
+        final String[] names = directory.list();
+        if (names == null || names.length != 1 || !STAGING.equals(names[0])) return;
+        try {
+            Files.delete(staging);
+        } catch (IOException e) {
+            LOG.trace("Keeping staging directory {}: {}", staging, e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    LOG.warn("Unable to unregister " + objectName, e);
+                }
+                objectName = null;
+            }
+            if (scrubber != null) {
+                scrubber.interrupt();
+                scrubber = null;
+            }
+            if (capacityThread != null) {
+                capacityThread.interrupt();
+                try {
+                    capacityThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                capacityThread = null;
+                try {
+                    capacity.close();
+                } catch (IOException e) {
+                    LOG.warn("Unable to save capacity of " + directory, e);
+                }
+            }
+            if (mover != null) {
+                mover.interrupt();
+                try {
+                    mover.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mover = null;
+            }
+            if (reaper != null) {
+                reaper.interrupt();
+                try {
+                    reaper.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                reaper = null;
+            }
+        }
+        final TombstoneLog currentTombstones = tombstones;
+        if (currentTombstones != null) {
+            try {
+                currentTombstones.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close tombstones of " + directory, e);
+            }
+        }
+        final GroupCommitter current = committer;
+        if (current != null) {
+            current.shutdown();
+        }
+        final FileIndex currentIndex = index;
+        if (currentIndex != null) {
+            try {
+                currentIndex.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close index of " + directory, e);
+            }
+        }
     }
 
 }
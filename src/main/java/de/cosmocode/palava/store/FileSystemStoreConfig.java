@@ -29,10 +29,88 @@ final class FileSystemStoreConfig {
     
     public static final String FILE_IDENTIFIER = PREFIX + "fileIdentifier";
     
+    public static final String LEGACY_FILE_IDENTIFIER = PREFIX + "legacyFileIdentifier";
+    
     public static final String UNIX_OWNER = PREFIX + "unixOwner";
     
     public static final String UNIX_PERMISSIONS = PREFIX + "unixPermissions";
     
+    public static final String DURABILITY = PREFIX + "durability";
+    
+    public static final String GROUP_COMMIT_MAX_BATCH = PREFIX + "groupCommit.maxBatch";
+    
+    public static final String GROUP_COMMIT_MAX_WAIT = PREFIX + "groupCommit.maxWait";
+    
+    public static final String GROUP_COMMIT_MAX_WAIT_UNIT = PREFIX + "groupCommit.maxWaitUnit";
+    
+    public static final String INDEXED = PREFIX + "indexed";
+    
+    public static final String PRECREATE_DIRECTORIES = PREFIX + "precreateDirectories";
+    
+    public static final String VIEW_CACHE_MAX_BYTES = PREFIX + "viewCache.maxBytes";
+    
+    public static final String VIEW_CACHE_MAX_ENTRIES = PREFIX + "viewCache.maxEntries";
+    
+    public static final String SLAB_CACHE_MAX_BYTES = PREFIX + "slabCache.maxBytes";
+    
+    public static final String SLAB_CACHE_MAX_BLOB_SIZE = PREFIX + "slabCache.maxBlobSize";
+    
+    public static final String SLAB_CACHE_WRITE_THROUGH = PREFIX + "slabCache.writeThrough";
+    
+    public static final String BUFFER_SIZE = PREFIX + "bufferSize";
+    
+    public static final String EXECUTOR = PREFIX + "executor";
+    
+    public static final String BATCH_THREADS = PREFIX + "batch.threads";
+    
+    public static final String JMX_NAME = PREFIX + "jmx.name";
+    
+    public static final String DELETE_DEFERRED = PREFIX + "delete.deferred";
+    
+    public static final String REAPER_BATCH_SIZE = PREFIX + "reaper.batchSize";
+    
+    public static final String REAPER_RATE = PREFIX + "reaper.rate";
+    
+    public static final String COLD_DIRECTORY = PREFIX + "cold.directory";
+    
+    public static final String TIER_MIN_AGE = PREFIX + "tier.minAge";
+    
+    public static final String TIER_MIN_AGE_UNIT = PREFIX + "tier.minAgeUnit";
+    
+    public static final String TIER_PROMOTE_THRESHOLD = PREFIX + "tier.promoteThreshold";
+    
+    public static final String TIER_BYTES_PER_SECOND = PREFIX + "tier.bytesPerSecond";
+    
+    public static final String TIER_INTERVAL = PREFIX + "tier.interval";
+    
+    public static final String TIER_INTERVAL_UNIT = PREFIX + "tier.intervalUnit";
+    
+    public static final String CAPACITY_TRACKING = PREFIX + "capacity.tracking";
+    
+    public static final String QUOTA_BYTES = PREFIX + "quota.bytes";
+    
+    public static final String QUOTA_OBJECTS = PREFIX + "quota.objects";
+    
+    public static final String COMPRESSION = PREFIX + "compression";
+    
+    public static final String CODEC = PREFIX + "codec";
+    
+    public static final String CHECKSUM = PREFIX + "checksum";
+    
+    public static final String CHECKSUM_VERIFY = PREFIX + "checksum.verify";
+    
+    public static final String SCRUB_BYTES_PER_SECOND = PREFIX + "scrub.bytesPerSecond";
+    
+    public static final String SCRUB_INTERVAL = PREFIX + "scrub.interval";
+    
+    public static final String SCRUB_INTERVAL_UNIT = PREFIX + "scrub.intervalUnit";
+    
+    public static final String SCRUB_LISTENER = PREFIX + "scrub.listener";
+    
+    public static final String VOLUMES = PREFIX + "volumes";
+    
+    public static final String REBALANCE_BYTES_PER_SECOND = PREFIX + "rebalance.bytesPerSecond";
+    
     private FileSystemStoreConfig() {
         
     }
@@ -18,6 +18,8 @@ package de.cosmocode.palava.store;
 
 import java.io.File;
 import java.lang.annotation.Annotation;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.Binder;
@@ -32,7 +34,8 @@ import de.cosmocode.palava.core.inject.Config;
 import de.cosmocode.palava.core.inject.RebindModule;
 
 /**
- * Binds the {@link Store} and the {@link ByteStore} interface to {@link FileSystemStore}.
+ * Binds the {@link Store} and the {@link ByteStore} interface to {@link FileSystemStore}
+ * and provides an {@link AsyncFileSystemStore} sharing the same instance.
  *
  * @author Willi Schoenborn
  */
@@ -41,6 +44,7 @@ public final class FileSystemStoreModule implements Module {
     @Override
     public void configure(Binder binder) {
         binder.bind(FileSystemStore.class).in(Singleton.class);
+        binder.bind(AsyncFileSystemStore.class).in(Singleton.class);
         binder.bind(ByteStore.class).to(FileSystemStore.class).in(Singleton.class);
         binder.bind(Store.class).to(ByteStore.class).in(Singleton.class);
     }
@@ -81,10 +85,12 @@ public final class FileSystemStoreModule implements Module {
         
         private final Annotation key;
         private final Config config;
+        private final String prefix;
         
         private AnnotatedInstanceModule(Annotation annotation, String prefix) {
             this.key = annotation;
             this.config = new Config(prefix);
+            this.prefix = prefix;
         }
 
         @Override
@@ -103,23 +109,138 @@ public final class FileSystemStoreModule implements Module {
                 Key.get(FileIdentifier.class, Names.named(config.prefixed(FileSystemStoreConfig.FILE_IDENTIFIER)))
             ).in(Singleton.class);
             
+            bind(FileIdentifier.class).annotatedWith(Names.named(FileSystemStoreConfig.LEGACY_FILE_IDENTIFIER)).to(
+                Key.get(FileIdentifier.class, Names.named(config.prefixed(FileSystemStoreConfig.LEGACY_FILE_IDENTIFIER)))
+            ).in(Singleton.class);
+            
             bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.UNIX_OWNER)).to(
                 Key.get(String.class, Names.named(config.prefixed(FileSystemStoreConfig.UNIX_OWNER))));
             
             bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.UNIX_PERMISSIONS)).to(
                 Key.get(String.class, Names.named(config.prefixed(FileSystemStoreConfig.UNIX_PERMISSIONS))));
+            
+            bind(Durability.class).annotatedWith(Names.named(FileSystemStoreConfig.DURABILITY)).to(
+                Key.get(Durability.class, Names.named(config.prefixed(FileSystemStoreConfig.DURABILITY))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_BATCH)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_BATCH))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT_UNIT))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.INDEXED)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.INDEXED))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.VIEW_CACHE_MAX_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.VIEW_CACHE_MAX_BYTES))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.VIEW_CACHE_MAX_ENTRIES)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.VIEW_CACHE_MAX_ENTRIES))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_MAX_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_MAX_BYTES))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_MAX_BLOB_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_MAX_BLOB_SIZE))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.PRECREATE_DIRECTORIES)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.PRECREATE_DIRECTORIES))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_WRITE_THROUGH)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_WRITE_THROUGH))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.BUFFER_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.BUFFER_SIZE))));
+            
+            bind(ExecutorService.class).annotatedWith(Names.named(FileSystemStoreConfig.EXECUTOR)).to(
+                Key.get(ExecutorService.class, Names.named(config.prefixed(FileSystemStoreConfig.EXECUTOR))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.BATCH_THREADS)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.BATCH_THREADS))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.DELETE_DEFERRED)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.DELETE_DEFERRED))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.REAPER_BATCH_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.REAPER_BATCH_SIZE))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.REAPER_RATE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.REAPER_RATE))));
+            
+            bind(File.class).annotatedWith(Names.named(FileSystemStoreConfig.COLD_DIRECTORY)).to(
+                Key.get(File.class, Names.named(config.prefixed(FileSystemStoreConfig.COLD_DIRECTORY))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_MIN_AGE)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_MIN_AGE))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_MIN_AGE_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_MIN_AGE_UNIT))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_PROMOTE_THRESHOLD)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_PROMOTE_THRESHOLD))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_BYTES_PER_SECOND)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_BYTES_PER_SECOND))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_INTERVAL))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_INTERVAL_UNIT))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.CAPACITY_TRACKING)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.CAPACITY_TRACKING))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.QUOTA_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.QUOTA_BYTES))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.QUOTA_OBJECTS)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.QUOTA_OBJECTS))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.COMPRESSION)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.COMPRESSION))));
+            
+            bind(BlobCodec.class).annotatedWith(Names.named(FileSystemStoreConfig.CODEC)).to(
+                Key.get(BlobCodec.class, Names.named(config.prefixed(FileSystemStoreConfig.CODEC))));
+            
+            bind(ChecksumType.class).annotatedWith(Names.named(FileSystemStoreConfig.CHECKSUM)).to(
+                Key.get(ChecksumType.class, Names.named(config.prefixed(FileSystemStoreConfig.CHECKSUM))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.CHECKSUM_VERIFY)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.CHECKSUM_VERIFY))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_BYTES_PER_SECOND)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_BYTES_PER_SECOND))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_INTERVAL))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_INTERVAL_UNIT))));
+            
+            bind(ScrubListener.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_LISTENER)).to(
+                Key.get(ScrubListener.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_LISTENER))));
         }
     
         @Override
         protected void bindings() {
-            bind(FileSystemStore.class).annotatedWith(key).to(FileSystemStore.class).in(Singleton.class);
+            // the asynchronous facade has to share the instance
+            bind(FileSystemStore.class).in(Singleton.class);
+            // metrics of named stores are published using their name
+            bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.JMX_NAME)).toInstance(prefix);
+            bind(FileSystemStore.class).annotatedWith(key).to(FileSystemStore.class);
             bind(ByteStore.class).annotatedWith(key).to(Key.get(FileSystemStore.class, key)).in(Singleton.class);
             bind(Store.class).annotatedWith(key).to(Key.get(ByteStore.class, key)).in(Singleton.class);
+            bind(AsyncFileSystemStore.class).annotatedWith(key).to(AsyncFileSystemStore.class).in(Singleton.class);
         }
 
         @Override
         protected void expose() {
             expose(FileSystemStore.class).annotatedWith(key);
+            expose(AsyncFileSystemStore.class).annotatedWith(key);
             expose(ByteStore.class).annotatedWith(key);
             expose(Store.class).annotatedWith(key);
         }
@@ -149,10 +270,12 @@ public final class FileSystemStoreModule implements Module {
         
         private final Class<? extends Annotation> key;
         private final Config config;
+        private final String prefix;
         
         private AnnotatedModule(Class<? extends Annotation> key, String prefix) {
             this.key = key;
             this.config = new Config(prefix);
+            this.prefix = prefix;
         }
 
         @Override
@@ -170,24 +293,139 @@ public final class FileSystemStoreModule implements Module {
             bind(FileIdentifier.class).annotatedWith(Names.named(FileSystemStoreConfig.FILE_IDENTIFIER)).to(
                 Key.get(FileIdentifier.class, Names.named(config.prefixed(FileSystemStoreConfig.FILE_IDENTIFIER)))
             ).in(Singleton.class);
+            
+            bind(FileIdentifier.class).annotatedWith(Names.named(FileSystemStoreConfig.LEGACY_FILE_IDENTIFIER)).to(
+                Key.get(FileIdentifier.class, Names.named(config.prefixed(FileSystemStoreConfig.LEGACY_FILE_IDENTIFIER)))
+            ).in(Singleton.class);
 
             bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.UNIX_OWNER)).to(
                 Key.get(String.class, Names.named(config.prefixed(FileSystemStoreConfig.UNIX_OWNER))));
             
             bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.UNIX_PERMISSIONS)).to(
                 Key.get(String.class, Names.named(config.prefixed(FileSystemStoreConfig.UNIX_PERMISSIONS))));
+            
+            bind(Durability.class).annotatedWith(Names.named(FileSystemStoreConfig.DURABILITY)).to(
+                Key.get(Durability.class, Names.named(config.prefixed(FileSystemStoreConfig.DURABILITY))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_BATCH)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_BATCH))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.GROUP_COMMIT_MAX_WAIT_UNIT))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.INDEXED)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.INDEXED))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.VIEW_CACHE_MAX_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.VIEW_CACHE_MAX_BYTES))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.VIEW_CACHE_MAX_ENTRIES)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.VIEW_CACHE_MAX_ENTRIES))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_MAX_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_MAX_BYTES))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_MAX_BLOB_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_MAX_BLOB_SIZE))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.PRECREATE_DIRECTORIES)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.PRECREATE_DIRECTORIES))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.SLAB_CACHE_WRITE_THROUGH)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.SLAB_CACHE_WRITE_THROUGH))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.BUFFER_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.BUFFER_SIZE))));
+            
+            bind(ExecutorService.class).annotatedWith(Names.named(FileSystemStoreConfig.EXECUTOR)).to(
+                Key.get(ExecutorService.class, Names.named(config.prefixed(FileSystemStoreConfig.EXECUTOR))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.BATCH_THREADS)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.BATCH_THREADS))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.DELETE_DEFERRED)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.DELETE_DEFERRED))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.REAPER_BATCH_SIZE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.REAPER_BATCH_SIZE))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.REAPER_RATE)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.REAPER_RATE))));
+            
+            bind(File.class).annotatedWith(Names.named(FileSystemStoreConfig.COLD_DIRECTORY)).to(
+                Key.get(File.class, Names.named(config.prefixed(FileSystemStoreConfig.COLD_DIRECTORY))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_MIN_AGE)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_MIN_AGE))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_MIN_AGE_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_MIN_AGE_UNIT))));
+            
+            bind(int.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_PROMOTE_THRESHOLD)).to(
+                Key.get(int.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_PROMOTE_THRESHOLD))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_BYTES_PER_SECOND)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_BYTES_PER_SECOND))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_INTERVAL))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.TIER_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.TIER_INTERVAL_UNIT))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.CAPACITY_TRACKING)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.CAPACITY_TRACKING))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.QUOTA_BYTES)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.QUOTA_BYTES))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.QUOTA_OBJECTS)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.QUOTA_OBJECTS))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.COMPRESSION)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.COMPRESSION))));
+            
+            bind(BlobCodec.class).annotatedWith(Names.named(FileSystemStoreConfig.CODEC)).to(
+                Key.get(BlobCodec.class, Names.named(config.prefixed(FileSystemStoreConfig.CODEC))));
+            
+            bind(ChecksumType.class).annotatedWith(Names.named(FileSystemStoreConfig.CHECKSUM)).to(
+                Key.get(ChecksumType.class, Names.named(config.prefixed(FileSystemStoreConfig.CHECKSUM))));
+            
+            bind(boolean.class).annotatedWith(Names.named(FileSystemStoreConfig.CHECKSUM_VERIFY)).to(
+                Key.get(boolean.class, Names.named(config.prefixed(FileSystemStoreConfig.CHECKSUM_VERIFY))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_BYTES_PER_SECOND)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_BYTES_PER_SECOND))));
+            
+            bind(long.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_INTERVAL)).to(
+                Key.get(long.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_INTERVAL))));
+            
+            bind(TimeUnit.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_INTERVAL_UNIT)).to(
+                Key.get(TimeUnit.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_INTERVAL_UNIT))));
+            
+            bind(ScrubListener.class).annotatedWith(Names.named(FileSystemStoreConfig.SCRUB_LISTENER)).to(
+                Key.get(ScrubListener.class, Names.named(config.prefixed(FileSystemStoreConfig.SCRUB_LISTENER))));
         }
     
         @Override
         protected void bindings() {
-            bind(FileSystemStore.class).annotatedWith(key).to(FileSystemStore.class).in(Singleton.class);
+            // the asynchronous facade has to share the instance
+            bind(FileSystemStore.class).in(Singleton.class);
+            // metrics of named stores are published using their name
+            bind(String.class).annotatedWith(Names.named(FileSystemStoreConfig.JMX_NAME)).toInstance(prefix);
+            bind(FileSystemStore.class).annotatedWith(key).to(FileSystemStore.class);
             bind(ByteStore.class).annotatedWith(key).to(Key.get(FileSystemStore.class, key)).in(Singleton.class);
             bind(Store.class).annotatedWith(key).to(Key.get(ByteStore.class, key)).in(Singleton.class);
+            bind(AsyncFileSystemStore.class).annotatedWith(key).to(AsyncFileSystemStore.class).in(Singleton.class);
         }
 
         @Override
         protected void expose() {
             expose(FileSystemStore.class).annotatedWith(key);
+            expose(AsyncFileSystemStore.class).annotatedWith(key);
             expose(ByteStore.class).annotatedWith(key);
             expose(Store.class).annotatedWith(key);
         }
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Batches directory fsync calls of concurrent writers. Callers park in {@link #force(Path)}
+ * until a single flusher thread forced a batch of pending directories. Every distinct
+ * directory of a batch is forced once, so writers which created files in the same
+ * directory share a single flush.
+ *
+ * <p>
+ *   Only directories are coalesced. Java offers no way to flush several files with a
+ *   single call, so writers force their file content themselves, in parallel.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class GroupCommitter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+    private final int maxBatch;
+
+    private final long maxWaitNanos;
+
+    private final Thread flusher;
+
+    /**
+     * Written while holding the monitor of this committer, which is also held while
+     * enqueueing, so no request can be added after the flusher saw it cleared.
+     */
+    private volatile boolean running = true;
+
+    GroupCommitter(String name, int maxBatch, long maxWait, TimeUnit maxWaitUnit) {
+        Preconditions.checkArgument(maxBatch > 0, "MaxBatch must be positive");
+        Preconditions.checkArgument(maxWait >= 0, "MaxWait must not be negative");
+        Preconditions.checkNotNull(maxWaitUnit, "MaxWaitUnit");
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = maxWaitUnit.toNanos(maxWait);
+        this.flusher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        }, "group-commit-" + name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Forces the given directory as part of the next batch.
+     *
+     * @param directory the directory
+     * @throws IOException if forcing failed
+     */
+    public void force(Path directory) throws IOException {
+        final Request request = new Request(Preconditions.checkNotNull(directory, "Directory"));
+        synchronized (this) {
+            Preconditions.checkState(running, "Group committer has been shut down");
+            queue.add(request);
+        }
+        try {
+            request.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for group commit", e);
+        }
+        if (request.failure != null) {
+            throw new IOException("Group commit failed", request.failure);
+        }
+    }
+
+    private void flush() {
+        final List<Request> batch = Lists.newArrayListWithCapacity(maxBatch);
+        try {
+            while (running || !queue.isEmpty()) {
+                try {
+                    final Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    collect(batch);
+                    commit(batch);
+                } catch (InterruptedException e) {
+                    LOG.trace("Group commit flusher interrupted");
+                } finally {
+                    batch.clear();
+                }
+            }
+            LOG.debug("Group commit flusher {} stopped", flusher.getName());
+        } finally {
+            synchronized (this) {
+                running = false;
+            }
+            // only left over if the flusher died, nobody else would complete them
+            final List<Request> remaining = Lists.newArrayList();
+            queue.drainTo(remaining);
+            fail(remaining, new IllegalStateException("Group commit flusher " + flusher.getName() + " died"));
+        }
+    }
+
+    private void collect(List<Request> batch) throws InterruptedException {
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatch) {
+            final long remaining = deadline - System.nanoTime();
+            final Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        try {
+            final Map<Path, Exception> failures = Maps.newHashMap();
+            for (Request request : batch) {
+                if (failures.containsKey(request.directory)) continue;
+                try {
+                    Directories.force(request.directory);
+                    failures.put(request.directory, null);
+                } catch (IOException e) {
+                    failures.put(request.directory, e);
+                }
+            }
+            LOG.trace("Committed batch of {} requests in {} directories", batch.size(), failures.size());
+            for (Request request : batch) {
+                request.failure = failures.get(request.directory);
+                request.done.countDown();
+            }
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void fail(List<Request> requests, Exception failure) {
+        for (Request request : requests) {
+            if (request.done.getCount() == 0) continue;
+            request.failure = failure;
+            request.done.countDown();
+        }
+    }
+
+    /**
+     * Stops the flusher thread after all pending requests have been committed.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A pending force request of a single writer.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class Request {
+
+        private final Path directory;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Exception failure;
+
+        private Request(Path directory) {
+            this.directory = directory;
+        }
+
+    }
+
+}
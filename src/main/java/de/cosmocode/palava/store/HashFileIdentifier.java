@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link FileIdentifier} which distributes files evenly across a fixed tree of
+ * directories, regardless of how identifiers look like. The directories are chosen
+ * using a hash of the identifier, the file itself is named like the identifier.
+ *
+ * <p>
+ *   A depth of 2 and a fan-out of 256 produces paths like {@code 3f/a0/identifier}.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class HashFileIdentifier implements FileIdentifier {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int depth;
+
+    private final int fanOut;
+
+    private final int width;
+
+    /**
+     * Creates a new layout.
+     *
+     * @param depth the number of directory levels, at least 1
+     * @param fanOut the number of directories per level, between 2 and 65536
+     * @throws IllegalArgumentException if depth or fan-out are out of range or
+     *         the tree would need more than 64 bits of hash
+     */
+    public HashFileIdentifier(int depth, int fanOut) {
+        Preconditions.checkArgument(depth > 0, "Depth must be positive");
+        Preconditions.checkArgument(fanOut >= 2 && fanOut <= 65536, "FanOut must be between 2 and 65536");
+        final int bits = 32 - Integer.numberOfLeadingZeros(fanOut - 1);
+        Preconditions.checkArgument(depth * bits <= 64, "Depth %s and fanOut %s exceed 64 bits", depth, fanOut);
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.width = Integer.toHexString(fanOut - 1).length();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    @Override
+    public File toFile(File directory, String identifier) {
+        final StringBuilder builder = new StringBuilder(depth * (width + 1) + identifier.length());
+        long hash = hash(identifier);
+        for (int level = 0; level < depth; level++) {
+            final String name = Integer.toHexString((int) Long.remainderUnsigned(hash, fanOut));
+            builder.append(Strings.padStart(name, width, '0')).append(File.separatorChar);
+            hash = Long.divideUnsigned(hash, fanOut);
+        }
+        builder.append(identifier);
+        return new File(directory, builder.toString());
+    }
+
+    /**
+     * Provides all leaf directories of this layout, i.e. every directory a file
+     * can be placed in.
+     *
+     * @param directory the base directory
+     * @return fanOut to the power of depth directories
+     * @throws IllegalStateException if the tree has more than {@link Integer#MAX_VALUE} leaves
+     */
+    List<File> toDirectories(File directory) {
+        final double leaves = Math.pow(fanOut, depth);
+        Preconditions.checkState(leaves <= Integer.MAX_VALUE, "%s has too many directories", this);
+        List<File> level = Collections.singletonList(directory);
+        for (int i = 0; i < depth; i++) {
+            final List<File> next = Lists.newArrayListWithCapacity(level.size() * fanOut);
+            for (File parent : level) {
+                for (int name = 0; name < fanOut; name++) {
+                    next.add(new File(parent, Strings.padStart(Integer.toHexString(name), width, '0')));
+                }
+            }
+            level = next;
+        }
+        return level;
+    }
+
+    @Override
+    public String toIdentifier(File directory, File file) {
+        return file.getName();
+    }
+
+    /**
+     * 64 bit FNV-1a followed by the murmur3 finalizer for a better avalanche.
+     *
+     * @param identifier the identifier
+     * @return the hash
+     */
+    static long hash(String identifier) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < identifier.length(); i++) {
+            hash ^= identifier.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HashFileIdentifier [depth=" + depth + ", fanOut=" + fanOut + "]";
+    }
+
+}
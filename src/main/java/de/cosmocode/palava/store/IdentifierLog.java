@@ -0,0 +1,344 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+/**
+ * An append-only file of identifier records, shared by the {@link FileIndex} and
+ * the {@link TombstoneLog}.
+ *
+ * <p>
+ *   Every record consists of an operation byte, the identifier and a CRC32 of both.
+ *   Records either add or remove an identifier, a clean shutdown may append a marker
+ *   record holding the number of records before it, after forcing them to disk.
+ *   Compaction writes all live identifiers to a new file and atomically replaces the
+ *   log with it, including its directory entry. This class is not thread-safe,
+ *   callers synchronize.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class IdentifierLog {
+
+    /**
+     * The outcome of {@link IdentifierLog#replay(Set)}.
+     *
+     * @since 1.3
+     * @author Willi Schoenborn
+     */
+    enum State {
+
+        /**
+         * The file does not exist.
+         */
+        MISSING,
+
+        /**
+         * All records are valid and the last one is the clean marker, which matches
+         * the number of records.
+         */
+        CLEAN,
+
+        /**
+         * All records are valid, but the clean marker is missing.
+         */
+        UNCLEAN,
+
+        /**
+         * Replaying stopped at a truncated or corrupt record.
+         */
+        CORRUPT
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdentifierLog.class);
+
+    private static final byte ADD = '+';
+
+    private static final byte REMOVE = '-';
+
+    private static final byte CLEAN = 'C';
+
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Path file;
+
+    private final Path temp;
+
+    private FileChannel channel;
+
+    private long records;
+
+    private int markerLength;
+
+    IdentifierLog(Path file) {
+        this.file = Preconditions.checkNotNull(file, "File");
+        this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Applies all valid records to the given set, up to the first truncated
+     * or corrupt one.
+     *
+     * @param identifiers the set receiving added identifiers
+     * @return the state of the file
+     * @throws IOException if reading failed for other reasons
+     */
+    public State replay(Set<String> identifiers) throws IOException {
+        Preconditions.checkState(channel == null, "%s is already open", file);
+        final InputStream stream;
+        try {
+            stream = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            return State.MISSING;
+        }
+
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        boolean clean = false;
+        try {
+            while (true) {
+                final int op = input.read();
+                if (op == -1) break;
+                final String identifier = input.readUTF();
+                if (input.readInt() != checksum((byte) op, identifier)) {
+                    LOG.warn("{} contains an invalid checksum", file);
+                    return State.CORRUPT;
+                }
+                clean = op == CLEAN && isMarkerOf(identifier, records);
+                if (op == CLEAN) {
+                    markerLength = encode(CLEAN, identifier).length;
+                    if (!clean) {
+                        LOG.warn("{} contains a clean marker which does not match its records", file);
+                    }
+                }
+                if (op == ADD) {
+                    identifiers.add(identifier);
+                } else if (op == REMOVE) {
+                    identifiers.remove(identifier);
+                } else if (op != CLEAN) {
+                    LOG.warn("{} contains an unknown operation {}", file, op);
+                    return State.CORRUPT;
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            LOG.warn("{} is truncated", file);
+            return State.CORRUPT;
+        } finally {
+            input.close();
+        }
+        return clean ? State.CLEAN : State.UNCLEAN;
+    }
+
+    private static boolean isMarkerOf(String marker, long records) {
+        try {
+            return Long.parseLong(marker) == records;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the clean marker of a log replayed as {@link State#CLEAN} before anything
+     * is appended, so a crash before the next clean shutdown is detected even if the
+     * appends did not reach the disk.
+     *
+     * @throws IOException if truncating failed
+     */
+    public void reopen() throws IOException {
+        Preconditions.checkState(channel == null && markerLength > 0, "%s has not been replayed clean", file);
+        final FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE);
+        try {
+            output.truncate(output.size() - markerLength);
+            output.force(true);
+        } finally {
+            output.close();
+        }
+        records--;
+        markerLength = 0;
+    }
+
+    /**
+     * Appends a record adding the given identifier.
+     *
+     * @param identifier the identifier
+     * @throws IOException if appending failed
+     */
+    public void add(String identifier) throws IOException {
+        append(ADD, identifier);
+    }
+
+    /**
+     * Appends a record removing the given identifier.
+     *
+     * @param identifier the identifier
+     * @throws IOException if appending failed
+     */
+    public void remove(String identifier) throws IOException {
+        append(REMOVE, identifier);
+    }
+
+    private void append(byte op, String identifier) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(encode(op, identifier));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records++;
+    }
+
+    /**
+     * Forces all appended records to disk.
+     *
+     * @throws IOException if forcing failed
+     */
+    public void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Checks whether the log holds considerably more records than live identifiers.
+     *
+     * @param live the number of live identifiers
+     * @return true if the log should be compacted
+     */
+    public boolean needsCompaction(int live) {
+        return records > MIN_COMPACTION_RECORDS && records > 2L * live;
+    }
+
+    /**
+     * Replaces the log with one record for every given identifier.
+     *
+     * @param live all live identifiers
+     * @throws IOException if writing failed
+     */
+    public void compact(Set<String> live) throws IOException {
+        closeChannel();
+        final FileChannel output = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE);
+            for (String identifier : live) {
+                bytes.write(encode(ADD, identifier));
+                if (bytes.size() >= CHUNK_SIZE) {
+                    write(output, bytes);
+                }
+            }
+            write(output, bytes);
+            output.force(true);
+        } finally {
+            output.close();
+        }
+
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Directories.force(file.getParent());
+        records = live.size();
+        LOG.debug("Compacted {} to {} records", file, records);
+    }
+
+    private void write(FileChannel output, ByteArrayOutputStream bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        bytes.reset();
+    }
+
+    /**
+     * Closes and removes the file.
+     *
+     * @throws IOException if deleting failed
+     */
+    public void delete() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(file);
+        records = 0;
+    }
+
+    /**
+     * Forces and releases the underlying file.
+     *
+     * @param clean whether to append the clean marker, once all records are on disk
+     * @throws IOException if writing or closing failed
+     */
+    public void close(boolean clean) throws IOException {
+        if (clean) {
+            force();
+            append(CLEAN, Long.toString(records));
+        }
+        if (channel == null) return;
+        channel.force(true);
+        closeChannel();
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel == null) return;
+        channel.close();
+        channel = null;
+    }
+
+    private static byte[] encode(byte op, String identifier) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(identifier.length() + 8);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(op);
+        output.writeUTF(identifier);
+        output.writeInt(checksum(op, identifier));
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(byte op, String identifier) {
+        final CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(identifier.getBytes(Charsets.UTF_8));
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A single page of identifiers as returned by
+ * {@link FileSystemStore#list(String, String, int)}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class IdentifierPage {
+
+    private final List<String> identifiers;
+
+    private final String token;
+
+    IdentifierPage(List<String> identifiers, @Nullable String token) {
+        this.identifiers = ImmutableList.copyOf(Preconditions.checkNotNull(identifiers, "Identifiers"));
+        this.token = token;
+    }
+
+    /**
+     * Provides the identifiers of this page.
+     *
+     * @return an immutable list of identifiers
+     */
+    public List<String> getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * Provides the token which can be used to request the next page.
+     *
+     * @return the resume token or null if this was the last page
+     */
+    @Nullable
+    public String getToken() {
+        return token;
+    }
+
+    public boolean hasNext() {
+        return token != null;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentifierPage [identifiers=" + identifiers.size() + ", token=" + token + "]";
+    }
+
+}
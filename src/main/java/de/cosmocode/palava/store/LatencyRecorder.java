@@ -0,0 +1,113 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock free latency histogram in the style of HdrHistogram. Values are counted in
+ * log-linear buckets: every power of two is split into 64 linear sub buckets, which
+ * bounds the relative error of reported percentiles to below 1.6% over the whole
+ * range of {@code long} at a fixed memory footprint.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class LatencyRecorder {
+
+    private static final int SUB_BITS = 7;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+
+    private static final int BUCKETS = SUB_COUNT + (Long.SIZE - 1 - SUB_BITS) * HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value, negative values are counted as zero
+     */
+    public void record(long value) {
+        final long safe = Math.max(0, value);
+        counts.incrementAndGet(indexOf(safe));
+        long current = max.get();
+        while (safe > current && !max.compareAndSet(current, safe)) {
+            current = max.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        final int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BITS + 1;
+        final int top = (int) (value >>> shift);
+        return SUB_COUNT + (magnitude - SUB_BITS) * HALF_COUNT + top - HALF_COUNT;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_COUNT) return index;
+        final int offset = index - SUB_COUNT;
+        final int shift = offset / HALF_COUNT + 1;
+        final long top = HALF_COUNT + offset % HALF_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Computes the given percentiles on a snapshot of the current counts.
+     *
+     * @param percentiles the percentiles, each between 0.0 and 100.0
+     * @return the highest value equivalent to each percentile, 0 if nothing was recorded
+     */
+    public long[] getPercentiles(double... percentiles) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        final long[] values = new long[percentiles.length];
+        for (int p = 0; p < percentiles.length; p++) {
+            Preconditions.checkArgument(percentiles[p] >= 0.0 && percentiles[p] <= 100.0,
+                "Percentile %s must be between 0 and 100", percentiles[p]);
+            if (total == 0) continue;
+            final long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    values[p] = Math.min(highestValueOf(i), max.get());
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+}
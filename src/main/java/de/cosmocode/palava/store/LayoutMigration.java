@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+/**
+ * Moves all files of a {@link FileSystemStore} from its
+ * {@link FileSystemStore#getLegacyFileIdentifier() legacy layout} to its current layout
+ * while the store stays in use.
+ *
+ * <p>
+ *   Every file is hard linked to its new location before the old one is removed,
+ *   so it is readable at any time. The position of the walk is saved regularly,
+ *   an interrupted migration continues where it stopped when run again. Once the
+ *   migration completed, the legacy file identifier can be removed from the configuration.
+ *   A delete racing with the migration of the very same file waits until the file has
+ *   been moved and removes it from its new location.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class LayoutMigration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LayoutMigration.class);
+
+    /**
+     * Name of the checkpoint file inside the store directory.
+     */
+    static final String CHECKPOINT = ".migration";
+
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    private final FileSystemStore store;
+
+    private final Path root;
+
+    private final Path checkpoint;
+
+    public LayoutMigration(FileSystemStore store) {
+        this.store = Preconditions.checkNotNull(store, "Store");
+        Preconditions.checkArgument(store.getLegacyFileIdentifier() != null,
+            "%s has no legacy file identifier", store);
+        this.root = store.getDirectory().toPath();
+        this.checkpoint = root.resolve(CHECKPOINT);
+    }
+
+    /**
+     * Runs the migration until all files are in the current layout.
+     *
+     * @return the number of moved files
+     * @throws IOException if moving a file failed
+     */
+    public long run() throws IOException {
+        final List<String> after = readCheckpoint();
+        if (!after.isEmpty()) {
+            LOG.info("Resuming migration of {} after {}", root, after);
+        }
+
+        final ShardIterator files = new ShardIterator(root, Collections.<String>emptyList(), "", after,
+            FileSystemStore.RESERVED);
+        long moved = 0;
+        long visited = 0;
+        while (files.hasNext()) {
+            final Path file = files.next();
+            if (store.relocate(file)) {
+                moved++;
+            }
+            if (++visited % CHECKPOINT_INTERVAL == 0) {
+                writeCheckpoint(ShardIterator.segments(root, file));
+                LOG.info("Migrated {} of {} visited files in {}", new Object[] {moved, visited, root});
+            }
+        }
+
+        Files.deleteIfExists(checkpoint);
+        LOG.info("Migration of {} completed, moved {} files", root, moved);
+        return moved;
+    }
+
+    private List<String> readCheckpoint() throws IOException {
+        try {
+            final String token = new String(Files.readAllBytes(checkpoint), Charsets.UTF_8).trim();
+            return token.length() == 0 ? Collections.<String>emptyList() : Lists.newArrayList(Splitter.on('/').split(token));
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private void writeCheckpoint(List<String> segments) throws IOException {
+        final Path temp = checkpoint.resolveSibling(CHECKPOINT + ".tmp");
+        Files.write(temp, Joiner.on('/').join(segments).getBytes(Charsets.UTF_8));
+        Files.move(temp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutMigration [directory=" + root + "]";
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} which counts the bytes actually read from another stream
+ * and adds them to the given metrics when being closed. Skipped bytes are not counted.
+ * Closing this stream closes the underlying stream.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class MeteredInputStream extends FilterInputStream {
+
+    private final OperationMetrics metrics;
+
+    private long count;
+
+    private boolean closed;
+
+    MeteredInputStream(InputStream input, OperationMetrics metrics) {
+        super(input);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = in.read();
+        if (read != -1) {
+            count++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        final int read = in.read(bytes, offset, length);
+        if (read != -1) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            metrics.addBytes(count);
+        }
+        in.close();
+    }
+
+}
@@ -0,0 +1,478 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.MembersInjector;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * A {@link ByteStore} which stripes identifiers across several {@link FileSystemStore}s,
+ * usually located on different disks.
+ *
+ * <p>
+ *   Identifiers are placed using a consistent hash ring. Every volume gets a stable id and
+ *   a number of ring points proportional to its free space when it is first seen, both are
+ *   saved in the volume directory. Reads therefore go straight to the owning volume. When
+ *   a volume is added, a throttled background task moves the identifiers which now belong
+ *   to it. Only while that task runs, reads fall back to probing the other volumes.
+ * </p>
+ *
+ * <p>
+ *   Volumes created from {@link FileSystemStoreConfig#VOLUMES} share the configuration
+ *   of a single {@link FileSystemStore} and follow the lifecycle of this store.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class MultiVolumeStore extends AbstractByteStore implements Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiVolumeStore.class);
+
+    /**
+     * Name of the file holding id and ring points of a volume.
+     */
+    static final String VOLUME = ".volume";
+
+    /**
+     * Name of the marker file which exists while a volume is being filled by rebalancing.
+     */
+    static final String REBALANCING = ".rebalancing";
+
+    private static final long BYTES_PER_POINT = 1024L * 1024L * 1024L;
+
+    private static final int MIN_POINTS = 16;
+
+    private static final int MAX_POINTS = 4096;
+
+    private final VolumeRing<FileSystemStore> ring;
+
+    private final List<FileSystemStore> volumes;
+
+    private final ExecutorService listing;
+
+    /**
+     * Serializes deletes with the final step of moving the same identifier.
+     */
+    private final StripedLocks locks = new StripedLocks(256);
+
+    private IdGenerator generator = new UUIDGenerator();
+
+    private long rebalanceBytesPerSecond = 16L * 1024L * 1024L;
+
+    private volatile boolean rebalancing;
+
+    private volatile boolean running = true;
+
+    private Thread rebalancer;
+
+    @Inject
+    MultiVolumeStore(@Named(FileSystemStoreConfig.VOLUMES) String directories,
+        MembersInjector<FileSystemStore> configurator) throws IOException {
+        this(toStores(directories, configurator));
+    }
+
+    MultiVolumeStore(List<FileSystemStore> volumes) throws IOException {
+        Preconditions.checkArgument(!volumes.isEmpty(), "Volumes must not be empty");
+        this.volumes = ImmutableList.copyOf(volumes);
+
+        final List<FileSystemStore> fresh = Lists.newArrayList();
+        final Map<String, Integer> points = Maps.newHashMap();
+        final Map<String, FileSystemStore> ids = Maps.newLinkedHashMap();
+        for (FileSystemStore volume : volumes) {
+            final Path file = volume.getDirectory().toPath().resolve(VOLUME);
+            final Properties properties = new Properties();
+            try {
+                final InputStream stream = Files.newInputStream(file);
+                try {
+                    properties.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (NoSuchFileException e) {
+                fresh.add(volume);
+                continue;
+            }
+            final String id = properties.getProperty("id");
+            Preconditions.checkState(ids.put(id, volume) == null, "Duplicate volume %s", id);
+            points.put(id, Integer.valueOf(properties.getProperty("points")));
+        }
+
+        final boolean populated = !ids.isEmpty();
+        for (FileSystemStore volume : fresh) {
+            final String id = UUID.randomUUID().toString();
+            final int count = computePoints(volume.getDirectory());
+            if (populated) {
+                Files.createFile(volume.getDirectory().toPath().resolve(REBALANCING));
+            }
+            writeVolume(volume.getDirectory().toPath().resolve(VOLUME), id, count);
+            LOG.info("Added volume {} at {} with {} ring points", new Object[] {id, volume.getDirectory(), count});
+            ids.put(id, volume);
+            points.put(id, count);
+        }
+
+        this.ring = new VolumeRing<FileSystemStore>(points, ids);
+        for (FileSystemStore volume : volumes) {
+            if (Files.exists(volume.getDirectory().toPath().resolve(REBALANCING))) {
+                rebalancing = true;
+            }
+        }
+
+        this.listing = Executors.newFixedThreadPool(volumes.size(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "multi-volume-list");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+    }
+
+    private static List<FileSystemStore> toStores(String directories,
+        MembersInjector<FileSystemStore> configurator) throws IOException {
+        final List<FileSystemStore> stores = Lists.newArrayList();
+        for (String directory : Splitter.on(',').trimResults().omitEmptyStrings().split(directories)) {
+            final FileSystemStore store = new FileSystemStore(new File(directory));
+            // applies the optional settings, e.g. layout and durability
+            configurator.injectMembers(store);
+            stores.add(store);
+        }
+        return stores;
+    }
+
+    private static int computePoints(File directory) throws IOException {
+        final long usable = Files.getFileStore(directory.toPath()).getUsableSpace();
+        return (int) Math.max(MIN_POINTS, Math.min(MAX_POINTS, usable / BYTES_PER_POINT));
+    }
+
+    private static void writeVolume(Path file, String id, int points) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("id", id);
+        properties.setProperty("points", Integer.toString(points));
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        final OutputStream stream = Files.newOutputStream(temp);
+        try {
+            properties.store(stream, "Volume of a multi volume store, do not edit");
+        } finally {
+            stream.close();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Inject(optional = true)
+    void setGenerator(@Named(StoreConfig.ID_GENERATOR) IdGenerator generator) {
+        this.generator = Preconditions.checkNotNull(generator, "Generator");
+    }
+
+    /**
+     * Limits the rate at which identifiers are moved to a new volume.
+     *
+     * @param bytesPerSecond the maximum number of bytes moved per second
+     */
+    @Inject(optional = true)
+    public void setRebalanceBytesPerSecond(
+        @Named(FileSystemStoreConfig.REBALANCE_BYTES_PER_SECOND) long bytesPerSecond) {
+        Preconditions.checkArgument(bytesPerSecond > 0, "BytesPerSecond must be positive");
+        this.rebalanceBytesPerSecond = bytesPerSecond;
+    }
+
+    public List<FileSystemStore> getVolumes() {
+        return volumes;
+    }
+
+    public boolean isRebalancing() {
+        return rebalancing;
+    }
+
+    @Override
+    public synchronized void initialize() throws LifecycleException {
+        for (FileSystemStore volume : volumes) {
+            volume.initialize();
+        }
+        if (!rebalancing || rebalancer != null) return;
+        rebalancer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                rebalance();
+            }
+
+        }, "multi-volume-rebalancer");
+        rebalancer.setDaemon(true);
+        rebalancer.start();
+    }
+
+    @Override
+    public String create(InputStream stream) throws IOException {
+        Preconditions.checkNotNull(stream, "Stream");
+        final String identifier = generator.generate();
+        create(stream, identifier);
+        return identifier;
+    }
+
+    @Override
+    public void create(InputStream stream, String identifier) throws IOException {
+        Preconditions.checkNotNull(stream, "Stream");
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (rebalancing) {
+            Preconditions.checkState(locate(identifier) == null, "%s is already present", identifier);
+        }
+        ring.get(identifier).create(stream, identifier);
+    }
+
+    @Override
+    public InputStream read(String identifier) throws IOException {
+        return resolve(identifier).read(identifier);
+    }
+
+    @Override
+    public ByteBuffer view(String identifier) throws IOException {
+        return resolve(identifier).view(identifier);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     *   Lists all volumes in parallel.
+     * </p>
+     */
+    @Override
+    public Set<String> list() throws IOException {
+        final List<Future<Set<String>>> futures = Lists.newArrayListWithCapacity(volumes.size());
+        for (final FileSystemStore volume : volumes) {
+            futures.add(listing.submit(new Callable<Set<String>>() {
+
+                @Override
+                public Set<String> call() throws IOException {
+                    return volume.list();
+                }
+
+            }));
+        }
+
+        final Set<String> identifiers = Sets.newHashSet();
+        for (Future<Set<String>> future : futures) {
+            try {
+                identifiers.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while listing", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else {
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+        return identifiers;
+    }
+
+    @Override
+    public void delete(String identifier) throws IOException {
+        if (!rebalancing) {
+            resolve(identifier).delete(identifier);
+            return;
+        }
+        final Lock lock = locks.get(identifier);
+        lock.lock();
+        try {
+            resolve(identifier).delete(identifier);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the volume holding the given identifier.
+     *
+     * @param identifier the identifier
+     * @return the owning volume, or the volume still holding it while rebalancing
+     */
+    private FileSystemStore resolve(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        final FileSystemStore owner = ring.get(identifier);
+        if (!rebalancing) return owner;
+        final FileSystemStore volume = locate(identifier);
+        return volume == null ? owner : volume;
+    }
+
+    private FileSystemStore locate(String identifier) throws IOException {
+        final FileSystemStore owner = ring.get(identifier);
+        if (owner.contains(identifier)) return owner;
+        for (FileSystemStore volume : volumes) {
+            if (volume != owner && volume.contains(identifier)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    private void rebalance() {
+        LOG.info("Rebalancing {} volumes", volumes.size());
+        final long started = System.nanoTime();
+        long moved = 0;
+        long bytes = 0;
+        long failed = 0;
+        try {
+            for (FileSystemStore volume : volumes) {
+                final Iterator<String> identifiers = volume.iterator(null);
+                while (running && identifiers.hasNext()) {
+                    final String identifier = identifiers.next();
+                    final FileSystemStore owner = ring.get(identifier);
+                    if (owner == volume) continue;
+                    try {
+                        bytes += move(identifier, volume, owner);
+                        moved++;
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unable to move " + identifier + " to " + owner.getDirectory(), e);
+                        failed++;
+                    }
+                    throttle(started, bytes);
+                }
+            }
+            if (!running) return;
+            if (failed > 0) {
+                LOG.error("Rebalancing failed for {} identifiers, will be resumed on next start", failed);
+                return;
+            }
+            for (FileSystemStore volume : volumes) {
+                Files.deleteIfExists(volume.getDirectory().toPath().resolve(REBALANCING));
+            }
+            rebalancing = false;
+            LOG.info("Rebalancing completed, moved {} identifiers ({} bytes)", moved, bytes);
+        } catch (IOException e) {
+            LOG.error("Rebalancing failed, will be resumed on next start", e);
+        } catch (InterruptedException e) {
+            LOG.info("Rebalancing interrupted, will be resumed on next start");
+        } catch (RuntimeException e) {
+            LOG.error("Rebalancing failed, will be resumed on next start", e);
+        }
+    }
+
+    private long move(String identifier, FileSystemStore source, FileSystemStore target) throws IOException {
+        final File file;
+        try {
+            file = source.storedFile(identifier);
+        } catch (IOException e) {
+            LOG.trace("{} has been deleted concurrently", identifier);
+            return 0;
+        }
+        final long length = file.length();
+        if (!target.contains(identifier)) {
+            // decodes and lets the target apply its own codec
+            final InputStream stream = source.read(identifier);
+            try {
+                target.create(stream, identifier);
+            } finally {
+                stream.close();
+            }
+        }
+        final Lock lock = locks.get(identifier);
+        lock.lock();
+        try {
+            if (source.contains(identifier)) {
+                source.delete(identifier);
+                LOG.trace("Moved {} to {}", identifier, target.getDirectory());
+            } else {
+                // deleted while being copied, the copy must not bring it back
+                target.delete(identifier);
+                LOG.trace("{} has been deleted while being moved", identifier);
+                return 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return length;
+    }
+
+    private void throttle(long started, long bytes) throws InterruptedException {
+        final long expected = (long) (TimeUnit.SECONDS.toNanos(1) * (double) bytes / rebalanceBytesPerSecond);
+        final long elapsed = System.nanoTime() - started;
+        if (expected > elapsed) {
+            TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        running = false;
+        final Thread current;
+        synchronized (this) {
+            current = rebalancer;
+        }
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        listing.shutdown();
+        for (FileSystemStore volume : volumes) {
+            volume.dispose();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MultiVolumeStore [volumes=" + volumes.size() + ", rebalancing=" + rebalancing + "]";
+    }
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+
+/**
+ * Binds the {@link Store} and the {@link ByteStore} interface to {@link MultiVolumeStore}.
+ * The volumes are configured using {@link FileSystemStoreConfig#VOLUMES} as a comma separated
+ * list of directories.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class MultiVolumeStoreModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(MultiVolumeStore.class).in(Singleton.class);
+        binder.bind(ByteStore.class).to(MultiVolumeStore.class).in(Singleton.class);
+        binder.bind(Store.class).to(ByteStore.class).in(Singleton.class);
+    }
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * A {@link ScrubListener} which ignores all results, the {@link Scrubber}
+ * logs them anyway.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+enum NoScrubListener implements ScrubListener {
+
+    INSTANCE;
+
+    @Override
+    public void mismatch(ChecksumMismatchException exception) {
+
+    }
+
+    @Override
+    public void completed(long blobs, long bytes, long mismatches) {
+
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of a single kind of operation. Counters are striped, so
+ * concurrent callers do not contend on a single memory location.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class OperationMetrics {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LatencyRecorder latencies = new LatencyRecorder();
+
+    /**
+     * Records a completed operation.
+     *
+     * @param started the value of {@link System#nanoTime()} when the operation started
+     * @param transferred the number of bytes read or written
+     * @param success whether the operation succeeded
+     */
+    public void record(long started, long transferred, boolean success) {
+        latencies.record(System.nanoTime() - started);
+        count.increment();
+        if (success) {
+            bytes.add(transferred);
+        } else {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Adds bytes to an operation which has already been recorded, e.g. a stream
+     * which has been consumed after it had been opened.
+     *
+     * @param transferred the number of bytes read or written
+     */
+    public void addBytes(long transferred) {
+        bytes.add(transferred);
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public OperationStatistics getStatistics() {
+        final long[] percentiles = latencies.getPercentiles(50.0, 99.0, 99.9);
+        return new OperationStatistics(count.sum(), errors.sum(), bytes.sum(),
+            toMicros(percentiles[0]), toMicros(percentiles[1]), toMicros(percentiles[2]),
+            toMicros(latencies.getMax()));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
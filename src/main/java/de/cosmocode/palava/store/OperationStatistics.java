@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable snapshot of the metrics of a single kind of operation of a
+ * {@link FileSystemStore}. Latencies are given in microseconds.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class OperationStatistics {
+
+    private final long count;
+
+    private final long errors;
+
+    private final long bytes;
+
+    private final long p50;
+
+    private final long p99;
+
+    private final long p999;
+
+    private final long max;
+
+    @ConstructorProperties({"count", "errors", "bytes", "p50", "p99", "p999", "max"})
+    public OperationStatistics(long count, long errors, long bytes, long p50, long p99, long p999, long max) {
+        this.count = count;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * Provides the number of operations, including failed ones.
+     *
+     * @return the number of operations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Provides the number of bytes written by create or returned by read and view.
+     *
+     * @return the number of bytes transferred by successful operations
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStatistics [count=" + count + ", errors=" + errors + ", bytes=" + bytes +
+            ", p50=" + p50 + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + "]";
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+
+/**
+ * Signals that a create has been rejected because it would exceed the byte or
+ * object quota of a {@link FileSystemStore}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class QuotaExceededException extends IOException {
+
+    private static final long serialVersionUID = 6018275434391746522L;
+
+    private final long quota;
+
+    public QuotaExceededException(String message, long quota) {
+        super(message);
+        this.quota = quota;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+}
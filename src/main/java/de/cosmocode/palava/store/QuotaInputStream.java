@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} which reserves every byte it reads against the byte quota
+ * of a {@link CapacityTracker} and fails as soon as the quota would be exceeded.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class QuotaInputStream extends FilterInputStream {
+
+    private final CapacityTracker tracker;
+
+    private final long quota;
+
+    private long reserved;
+
+    QuotaInputStream(InputStream input, CapacityTracker tracker, long quota) {
+        super(input);
+        this.tracker = tracker;
+        this.quota = quota;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = in.read();
+        if (read != -1) {
+            reserve(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        final int read = in.read(bytes, offset, length);
+        if (read > 0) {
+            reserve(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        final long skipped = in.skip(count);
+        if (skipped > 0) {
+            reserve(skipped);
+        }
+        return skipped;
+    }
+
+    private void reserve(long count) throws QuotaExceededException {
+        tracker.reserveBytes(count, quota);
+        reserved += count;
+    }
+
+    /**
+     * Provides the number of bytes reserved so far.
+     *
+     * @return the reserved bytes
+     */
+    long getReserved() {
+        return reserved;
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Removes the files of deleted identifiers in the background, in batches and
+ * at a limited rate.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class Reaper implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Reaper.class);
+
+    private final FileSystemStore store;
+
+    private final BlockingQueue<String> queue;
+
+    private final int batchSize;
+
+    private final int rate;
+
+    Reaper(FileSystemStore store, BlockingQueue<String> queue, int batchSize, int rate) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        Preconditions.checkArgument(rate > 0, "Rate must be positive");
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.queue = Preconditions.checkNotNull(queue, "Queue");
+        this.batchSize = batchSize;
+        this.rate = rate;
+    }
+
+    @Override
+    public void run() {
+        final List<String> batch = Lists.newArrayListWithCapacity(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                final long started = System.nanoTime();
+                try {
+                    store.reap(batch);
+                } catch (IOException e) {
+                    LOG.error("Unable to reap " + batch + ", retrying after restart", e);
+                }
+                final long budget = TimeUnit.SECONDS.toNanos(1) * batch.size() / rate;
+                batch.clear();
+                final long remaining = budget - (System.nanoTime() - started);
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Reaper of {} stopped", store.getDirectory());
+        }
+    }
+
+}
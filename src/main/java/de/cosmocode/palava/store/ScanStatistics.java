@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.Arrays;
+
+/**
+ * The result of a {@link FileSystemStore#scan(ScanVisitor)}. Sizes are the sizes
+ * of the files, i.e. compressed blobs count with their stored size.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class ScanStatistics {
+
+    /**
+     * The number of histogram buckets, one for empty files and one per power of two.
+     */
+    public static final int BUCKETS = 65;
+
+    private final long count;
+
+    private final long bytes;
+
+    private final long[] histogram;
+
+    ScanStatistics(long count, long bytes, long[] histogram) {
+        this.count = count;
+        this.bytes = bytes;
+        this.histogram = histogram.clone();
+    }
+
+    /**
+     * Determines the histogram bucket of the given size.
+     *
+     * @param size the file size
+     * @return 0 for empty files, otherwise n for sizes between 2^(n-1) inclusive and 2^n exclusive
+     */
+    static int bucketOf(long size) {
+        return Long.SIZE - Long.numberOfLeadingZeros(size);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Provides the size histogram. Element 0 counts empty files, element n counts
+     * files of at least 2^(n-1) and less than 2^n bytes.
+     *
+     * @return a copy of the histogram with {@link #BUCKETS} elements
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ScanStatistics [count=" + count + ", bytes=" + bytes +
+            ", histogram=" + Arrays.toString(histogram) + "]";
+    }
+
+}
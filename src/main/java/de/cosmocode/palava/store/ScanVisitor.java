@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Receives every blob found by {@link FileSystemStore#scan(ScanVisitor)}.
+ * Scans run on several threads, so implementations have to be thread safe.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public interface ScanVisitor {
+
+    /**
+     * Called once for every blob.
+     *
+     * @param identifier the identifier
+     * @param attributes the attributes of the file, read while walking the directory
+     */
+    void visit(String identifier, BasicFileAttributes attributes);
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * Receives the results of the background scrubber of a {@link FileSystemStore}.
+ * Callbacks are invoked on the scrubber thread.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public interface ScrubListener {
+
+    /**
+     * Called for every blob whose content does not match its stored checksum.
+     *
+     * @param exception the mismatch, holding identifier and both checksums
+     */
+    void mismatch(ChecksumMismatchException exception);
+
+    /**
+     * Called after a complete pass over the store.
+     *
+     * @param blobs the number of verified blobs
+     * @param bytes the number of verified bytes
+     * @param mismatches the number of mismatches
+     */
+    void completed(long blobs, long bytes, long mismatches);
+
+}
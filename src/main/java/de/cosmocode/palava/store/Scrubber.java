@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Periodically verifies the checksums of all blobs of a {@link FileSystemStore},
+ * reading at a limited rate so foreground operations are not disturbed.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class Scrubber implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Scrubber.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final FileSystemStore store;
+
+    private final long bytesPerSecond;
+
+    private final long intervalNanos;
+
+    private final ScrubListener listener;
+
+    Scrubber(FileSystemStore store, long bytesPerSecond, long interval, TimeUnit unit, ScrubListener listener) {
+        Preconditions.checkArgument(bytesPerSecond > 0, "BytesPerSecond must be positive");
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.bytesPerSecond = bytesPerSecond;
+        this.intervalNanos = unit.toNanos(interval);
+        this.listener = Preconditions.checkNotNull(listener, "Listener");
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final long started = System.nanoTime();
+                scrub();
+                final long remaining = intervalNanos - (System.nanoTime() - started);
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Scrubber of {} stopped", store.getDirectory());
+        } catch (IOException e) {
+            LOG.error("Scrubber of " + store.getDirectory() + " failed", e);
+        }
+    }
+
+    /**
+     * Verifies all blobs once.
+     *
+     * @return the number of mismatches
+     * @throws IOException if listing the store failed
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    long scrub() throws IOException, InterruptedException {
+        final long started = System.nanoTime();
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        long blobs = 0;
+        long bytes = 0;
+        long mismatches = 0;
+
+        final Iterator<String> identifiers = store.iterator(null);
+        while (identifiers.hasNext()) {
+            final String identifier = identifiers.next();
+            final String expected;
+            final InputStream stream;
+            try {
+                expected = store.getChecksum(identifier);
+                if (expected == null) continue;
+                stream = new ChecksumInputStream(store.openContent(identifier),
+                    ChecksumType.of(expected).newDigest(), identifier, expected);
+            } catch (IllegalStateException e) {
+                LOG.trace("{} has been deleted concurrently", identifier);
+                continue;
+            }
+
+            try {
+                int read;
+                while ((read = stream.read(chunk)) != -1) {
+                    bytes += read;
+                    throttle(started, bytes);
+                }
+                blobs++;
+            } catch (ChecksumMismatchException e) {
+                LOG.error("Scrubbing detected corruption: {}", e.getMessage());
+                mismatches++;
+                listener.mismatch(e);
+            } catch (IOException e) {
+                LOG.warn("Unable to scrub " + identifier, e);
+            } finally {
+                stream.close();
+            }
+        }
+
+        LOG.info("Scrubbed {} blobs ({} bytes) of {}, {} mismatches", new Object[] {
+            blobs, bytes, store.getDirectory(), mismatches
+        });
+        listener.completed(blobs, bytes, mismatches);
+        return mismatches;
+    }
+
+    private void throttle(long started, long bytes) throws InterruptedException {
+        final long expected = (long) (TimeUnit.SECONDS.toNanos(1) * (double) bytes / bytesPerSecond);
+        final long elapsed = System.nanoTime() - started;
+        if (expected > elapsed) {
+            TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+        }
+    }
+
+}
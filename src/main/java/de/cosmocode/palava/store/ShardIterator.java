@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * Lazily walks a shard tree in sorted order, one directory at a time. Only the
+ * entries of the directories on the current path are held in memory.
+ *
+ * <p>
+ *   The walk can be restricted to a fixed chain of directory names followed by a name
+ *   prefix and can be resumed strictly after a previously returned relative path.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class ShardIterator extends AbstractIterator<Path> {
+
+    private final Path root;
+
+    private final List<String> fixed;
+
+    private final String partial;
+
+    private final List<String> after;
+
+    private final Set<String> excluded;
+
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+
+    /**
+     * Creates a new iterator.
+     *
+     * @param root the root directory
+     * @param fixed directory names which have to be entered on the first levels
+     * @param partial the name prefix on the level following the fixed names
+     * @param after relative path segments of the last returned file, empty to start at the beginning
+     * @param excluded names on the root level which are skipped
+     * @throws IOException if listing the root failed
+     */
+    ShardIterator(Path root, List<String> fixed, String partial, List<String> after,
+        Set<String> excluded) throws IOException {
+        this.root = Preconditions.checkNotNull(root, "Root");
+        this.fixed = ImmutableList.copyOf(fixed);
+        this.partial = Preconditions.checkNotNull(partial, "Partial");
+        this.after = ImmutableList.copyOf(after);
+        this.excluded = ImmutableSet.copyOf(excluded);
+        push(root, 0, true);
+    }
+
+    /**
+     * Splits the given relative path into segments.
+     *
+     * @param root the root directory
+     * @param path a path below root
+     * @return the names of all segments
+     */
+    static List<String> segments(Path root, Path path) {
+        final Path relative = root.relativize(path);
+        final List<String> segments = Lists.newArrayListWithCapacity(relative.getNameCount());
+        for (Path segment : relative) {
+            segments.add(segment.toString());
+        }
+        return segments;
+    }
+
+    private void push(Path directory, int depth, boolean constrained) throws IOException {
+        final List<Path> entries = Lists.newArrayList();
+        final DirectoryStream<Path> stream;
+        try {
+            stream = Files.newDirectoryStream(directory);
+        } catch (NoSuchFileException e) {
+            // removed concurrently
+            return;
+        }
+        try {
+            for (Path entry : stream) {
+                if (accept(entry.getFileName().toString(), depth, constrained)) {
+                    entries.add(entry);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(entries);
+        stack.push(new Frame(entries.iterator(), depth, constrained));
+    }
+
+    private boolean accept(String name, int depth, boolean constrained) {
+        if (depth == 0 && excluded.contains(name)) {
+            return false;
+        } else if (depth < fixed.size() && !name.equals(fixed.get(depth))) {
+            return false;
+        } else if (depth == fixed.size() && !name.startsWith(partial)) {
+            return false;
+        } else if (constrained && depth < after.size()) {
+            final int comparison = name.compareTo(after.get(depth));
+            // the last segment has already been returned
+            return comparison > 0 || comparison == 0 && depth < after.size() - 1;
+        } else {
+            return true;
+        }
+    }
+
+    @Override
+    protected Path computeNext() {
+        try {
+            while (!stack.isEmpty()) {
+                final Frame frame = stack.peek();
+                if (!frame.entries.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                final Path entry = frame.entries.next();
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // deleted or pruned concurrently
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    final boolean constrained = frame.constrained && frame.depth < after.size()
+                        && entry.getFileName().toString().equals(after.get(frame.depth));
+                    push(entry, frame.depth + 1, constrained);
+                } else {
+                    return entry;
+                }
+            }
+            return endOfData();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to list " + root, e);
+        }
+    }
+
+    /**
+     * The sorted entries of a single directory.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class Frame {
+
+        private final Iterator<Path> entries;
+
+        private final int depth;
+
+        private final boolean constrained;
+
+        private Frame(Iterator<Path> entries, int depth, boolean constrained) {
+            this.entries = entries;
+            this.depth = depth;
+            this.constrained = constrained;
+        }
+
+    }
+
+}
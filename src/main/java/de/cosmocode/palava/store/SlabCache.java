@@ -0,0 +1,342 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * A cache for small blobs which keeps their content in direct memory slabs outside
+ * of the heap, bounded by the total size of all slabs.
+ *
+ * <p>
+ *   Slabs are split into slots of a power of two size class. Each size class evicts
+ *   using a generalized clock: every hit raises the frequency of a slot up to a small
+ *   maximum and the clock hand decrements frequencies until it finds a slot which has
+ *   not been used since the last sweep. Frequently read blobs therefore survive scans
+ *   over many blobs which are read only once.
+ * </p>
+ *
+ * <p>
+ *   Once all memory is allocated, slabs move between size classes on demand: a class
+ *   which runs out of slots and has at least two slabs less than the largest class,
+ *   or none at all, takes over the last slab of the largest class, evicting the blobs
+ *   stored in it. Classes competing for memory therefore end up with a similar number
+ *   of slabs, while a class which is no longer used gives its slabs away.
+ * </p>
+ *
+ * <p>
+ *   Slots are reused after eviction, so callers receive read-only copies of the
+ *   cached content instead of views into the slabs.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class SlabCache {
+
+    /**
+     * The size of a single slab, which is also the smallest possible maximum size of the cache.
+     */
+    static final int SLAB_SIZE = 1024 * 1024;
+
+    private static final int MIN_SLOT_SIZE = 64;
+
+    private static final int MAX_FREQUENCY = 3;
+
+    private final long maxBytes;
+
+    private final int maxBlobSize;
+
+    private final SizeClass[] classes;
+
+    private final Map<String, Slot> slots = Maps.newHashMap();
+
+    private long allocated;
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    SlabCache(long maxBytes, int maxBlobSize) {
+        Preconditions.checkArgument(maxBytes >= SLAB_SIZE, "MaxBytes must be at least %s", SLAB_SIZE);
+        Preconditions.checkArgument(maxBlobSize > 0 && maxBlobSize <= SLAB_SIZE,
+            "MaxBlobSize must be between 1 and %s", SLAB_SIZE);
+        this.maxBytes = maxBytes;
+        this.maxBlobSize = maxBlobSize;
+        final int count = classOf(maxBlobSize) + 1;
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(MIN_SLOT_SIZE << i);
+        }
+    }
+
+    public int getMaxBlobSize() {
+        return maxBlobSize;
+    }
+
+    private static int classOf(int size) {
+        final int slotSize = Math.max(MIN_SLOT_SIZE, Integer.highestOneBit(size - 1) << 1);
+        return Integer.numberOfTrailingZeros(slotSize) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE);
+    }
+
+    /**
+     * Looks up the content of the given identifier.
+     *
+     * @param identifier the identifier
+     * @return a read-only copy of the cached content, or null if not cached
+     */
+    @Nullable
+    public synchronized ByteBuffer get(String identifier) {
+        final Slot slot = slots.get(identifier);
+        if (slot == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        final SizeClass sizeClass = classes[slot.sizeClass];
+        if (sizeClass.frequencies[slot.index] < MAX_FREQUENCY) {
+            sizeClass.frequencies[slot.index]++;
+        }
+        final byte[] copy = new byte[slot.length];
+        sizeClass.slice(slot.index).get(copy);
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the given content into the cache. Content larger than the maximum
+     * blob size is ignored.
+     *
+     * @param identifier the identifier
+     * @param content the content, its position is not changed
+     */
+    public synchronized void put(String identifier, ByteBuffer content) {
+        final int length = content.remaining();
+        if (length > maxBlobSize) return;
+        invalidate(identifier);
+
+        final int index = classOf(Math.max(1, length));
+        final SizeClass sizeClass = classes[index];
+        final int slot = sizeClass.allocate();
+        if (slot == -1) return;
+
+        sizeClass.slice(slot).put(content.duplicate());
+        sizeClass.owners[slot] = identifier;
+        sizeClass.frequencies[slot] = 0;
+        slots.put(identifier, new Slot(index, slot, length));
+        bytes += length;
+    }
+
+    /**
+     * Removes the given identifier from the cache.
+     *
+     * @param identifier the identifier
+     */
+    public synchronized void invalidate(String identifier) {
+        final Slot slot = slots.remove(identifier);
+        if (slot == null) return;
+        classes[slot.sizeClass].release(slot.index);
+        bytes -= slot.length;
+    }
+
+    /**
+     * Finds the class which has to give a slab to the given class.
+     *
+     * @return the class with the most slabs, or null if the given class should evict instead
+     */
+    @Nullable
+    private SizeClass victimOf(SizeClass requester) {
+        SizeClass victim = null;
+        for (SizeClass candidate : classes) {
+            if (candidate != requester && (victim == null || candidate.slabs.length > victim.slabs.length)) {
+                victim = candidate;
+            }
+        }
+        if (victim == null || victim.slabs.length == 0) {
+            return null;
+        } else if (requester.slabs.length == 0 || victim.slabs.length > requester.slabs.length + 1) {
+            return victim;
+        } else {
+            return null;
+        }
+    }
+
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, slots.size(), bytes);
+    }
+
+    /**
+     * The slabs of a single slot size.
+     *
+     * @author Willi Schoenborn
+     */
+    private final class SizeClass {
+
+        private final int slotSize;
+
+        private final int slotsPerSlab;
+
+        private ByteBuffer[] slabs = new ByteBuffer[0];
+
+        private String[] owners = new String[0];
+
+        private byte[] frequencies = new byte[0];
+
+        private int[] free = new int[0];
+
+        private int freeCount;
+
+        private int hand;
+
+        private SizeClass(int slotSize) {
+            this.slotSize = slotSize;
+            this.slotsPerSlab = SLAB_SIZE / slotSize;
+        }
+
+        private ByteBuffer slice(int slot) {
+            final ByteBuffer slab = slabs[slot / slotsPerSlab].duplicate();
+            final int offset = (slot % slotsPerSlab) * slotSize;
+            ((Buffer) slab).limit(offset + slotSize).position(offset);
+            return slab.slice();
+        }
+
+        /**
+         * Provides a free slot, allocating a new slab, taking over a slab of another
+         * class or evicting if necessary.
+         *
+         * @return the slot or -1 if this class has no memory at all
+         */
+        private int allocate() {
+            if (freeCount == 0) {
+                if (allocated + SLAB_SIZE <= maxBytes) {
+                    allocated += SLAB_SIZE;
+                    grow(ByteBuffer.allocateDirect(SLAB_SIZE));
+                } else {
+                    final SizeClass victim = victimOf(this);
+                    if (victim != null) {
+                        grow(victim.shrink());
+                    }
+                }
+            }
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (owners.length == 0) return -1;
+            return evict();
+        }
+
+        private void grow(ByteBuffer slab) {
+            final int first = owners.length;
+            slabs = Arrays.copyOf(slabs, slabs.length + 1);
+            slabs[slabs.length - 1] = slab;
+            owners = Arrays.copyOf(owners, first + slotsPerSlab);
+            frequencies = Arrays.copyOf(frequencies, first + slotsPerSlab);
+            free = Arrays.copyOf(free, first + slotsPerSlab);
+            // hand out lower slots first
+            for (int slot = first + slotsPerSlab - 1; slot >= first; slot--) {
+                free[freeCount++] = slot;
+            }
+        }
+
+        /**
+         * Evicts all blobs in the last slab and gives it up.
+         *
+         * @return the slab
+         */
+        private ByteBuffer shrink() {
+            final int length = owners.length - slotsPerSlab;
+            for (int slot = length; slot < owners.length; slot++) {
+                if (owners[slot] == null) continue;
+                final Slot evicted = slots.remove(owners[slot]);
+                bytes -= evicted.length;
+                evictions++;
+            }
+            int kept = 0;
+            for (int i = 0; i < freeCount; i++) {
+                if (free[i] < length) {
+                    free[kept++] = free[i];
+                }
+            }
+            freeCount = kept;
+            final ByteBuffer slab = slabs[slabs.length - 1];
+            slabs = Arrays.copyOf(slabs, slabs.length - 1);
+            owners = Arrays.copyOf(owners, length);
+            frequencies = Arrays.copyOf(frequencies, length);
+            free = Arrays.copyOf(free, length);
+            if (hand >= length) {
+                hand = 0;
+            }
+            return slab;
+        }
+
+        private int evict() {
+            while (true) {
+                final int slot = hand;
+                hand = (hand + 1) % owners.length;
+                if (frequencies[slot] > 0) {
+                    frequencies[slot]--;
+                } else {
+                    final Slot evicted = slots.remove(owners[slot]);
+                    bytes -= evicted.length;
+                    owners[slot] = null;
+                    evictions++;
+                    return slot;
+                }
+            }
+        }
+
+        private void release(int slot) {
+            owners[slot] = null;
+            frequencies[slot] = 0;
+            free[freeCount++] = slot;
+        }
+
+    }
+
+    /**
+     * The location of a cached blob.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class Slot {
+
+        private final int sizeClass;
+
+        private final int index;
+
+        private final int length;
+
+        private Slot(int sizeClass, int index, int length) {
+            this.sizeClass = sizeClass;
+            this.index = index;
+            this.length = length;
+        }
+
+    }
+
+}
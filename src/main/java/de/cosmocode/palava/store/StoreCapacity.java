@@ -0,0 +1,64 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * An immutable snapshot of the number of blobs and bytes held by a {@link FileSystemStore}.
+ * Bytes are the sizes of the files, i.e. compressed blobs count with their stored size.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class StoreCapacity {
+
+    private final long objects;
+
+    private final long bytes;
+
+    private final boolean reconciled;
+
+    StoreCapacity(long objects, long bytes, boolean reconciled) {
+        this.objects = objects;
+        this.bytes = bytes;
+        this.reconciled = reconciled;
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Determines whether the counters are known to be accurate. Counters which were
+     * not persisted during a clean shutdown are estimates until the reconciling scan
+     * after startup has completed.
+     *
+     * @return true if the counters are accurate
+     */
+    public boolean isReconciled() {
+        return reconciled;
+    }
+
+    @Override
+    public String toString() {
+        return "StoreCapacity [objects=" + objects + ", bytes=" + bytes + ", reconciled=" + reconciled + "]";
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * Operation metrics of a {@link FileSystemStore}. Named stores register their
+ * metrics as MBean {@code de.cosmocode.palava.store:type=FileSystemStore,name=<name>}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public final class StoreMetrics implements StoreMetricsMXBean {
+
+    /**
+     * The JMX domain of all stores.
+     */
+    public static final String DOMAIN = "de.cosmocode.palava.store";
+
+    final OperationMetrics create = new OperationMetrics();
+
+    final OperationMetrics read = new OperationMetrics();
+
+    final OperationMetrics view = new OperationMetrics();
+
+    final OperationMetrics list = new OperationMetrics();
+
+    final OperationMetrics delete = new OperationMetrics();
+
+    StoreMetrics() {
+
+    }
+
+    @Override
+    public OperationStatistics getCreate() {
+        return create.getStatistics();
+    }
+
+    @Override
+    public OperationStatistics getRead() {
+        return read.getStatistics();
+    }
+
+    @Override
+    public OperationStatistics getView() {
+        return view.getStatistics();
+    }
+
+    @Override
+    public OperationStatistics getList() {
+        return list.getStatistics();
+    }
+
+    @Override
+    public OperationStatistics getDelete() {
+        return delete.getStatistics();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return create.getBytes();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return read.getBytes() + view.getBytes();
+    }
+
+}
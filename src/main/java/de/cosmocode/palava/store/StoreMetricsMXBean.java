@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+/**
+ * Management interface of {@link StoreMetrics}.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+public interface StoreMetricsMXBean {
+
+    OperationStatistics getCreate();
+
+    OperationStatistics getRead();
+
+    OperationStatistics getView();
+
+    OperationStatistics getList();
+
+    OperationStatistics getDelete();
+
+    /**
+     * Provides the number of bytes written by create.
+     *
+     * @return the number of bytes written
+     */
+    long getBytesIn();
+
+    /**
+     * Provides the number of bytes returned by read and view.
+     *
+     * @return the number of bytes read
+     */
+    long getBytesOut();
+
+}
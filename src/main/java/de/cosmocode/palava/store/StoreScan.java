@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Scans a single directory of a {@link FileSystemStore} and forks a new task for
+ * every sub directory. Files are accounted using the attributes provided while
+ * walking the directory, so no file is looked at twice.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class StoreScan extends RecursiveTask<StoreScan.Totals> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FileSystemStore store;
+
+    private final Path directory;
+
+    private final boolean root;
+
+    private final ScanVisitor visitor;
+
+    StoreScan(FileSystemStore store, Path directory, boolean root, @Nullable ScanVisitor visitor) {
+        this.store = store;
+        this.directory = directory;
+        this.root = root;
+        this.visitor = visitor;
+    }
+
+    @Override
+    protected Totals compute() {
+        final Totals totals = new Totals();
+        final List<StoreScan> children = Lists.newArrayList();
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (root && FileSystemStore.RESERVED.contains(file.getFileName().toString())) {
+                        return FileVisitResult.CONTINUE;
+                    } else if (attributes.isDirectory()) {
+                        children.add(new StoreScan(store, file, false, visitor));
+                    } else if (attributes.isRegularFile()) {
+                        final String identifier = store.toVisibleIdentifier(file);
+                        if (identifier != null) {
+                            totals.add(attributes.size());
+                            if (visitor != null) {
+                                visitor.visit(identifier, attributes);
+                            }
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        // deleted concurrently
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+
+            });
+        } catch (NoSuchFileException e) {
+            // directory pruned concurrently
+            return totals;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        invokeAll(children);
+        for (StoreScan child : children) {
+            totals.merge(child.join());
+        }
+        return totals;
+    }
+
+    /**
+     * Mutable totals of a single task.
+     *
+     * @since 1.3
+     * @author Willi Schoenborn
+     */
+    static final class Totals {
+
+        private long count;
+
+        private long bytes;
+
+        private final long[] histogram = new long[ScanStatistics.BUCKETS];
+
+        private void add(long size) {
+            count++;
+            bytes += size;
+            histogram[ScanStatistics.bucketOf(size)]++;
+        }
+
+        void merge(Totals other) {
+            count += other.count;
+            bytes += other.bytes;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+        }
+
+        ScanStatistics toStatistics() {
+            return new ScanStatistics(count, bytes, histogram);
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fixed table of locks, keys are mapped to locks by their hash code.
+ * Different keys may share a lock, equal keys always do.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class StripedLocks {
+
+    private final Lock[] locks;
+
+    private final int mask;
+
+    StripedLocks(int stripes) {
+        Preconditions.checkArgument(stripes > 0, "Stripes must be positive");
+        final int size = Integer.highestOneBit(stripes - 1) << 1;
+        this.locks = new Lock[Math.max(size, 1)];
+        this.mask = locks.length - 1;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Provides the lock for the given key.
+     *
+     * @param key the key
+     * @return the lock responsible for the given key
+     */
+    public Lock get(Object key) {
+        return locks[indexOf(key)];
+    }
+
+    /**
+     * Acquires the locks of both keys in the order of their stripes, so two threads
+     * locking overlapping pairs never deadlock.
+     *
+     * @param first the first key
+     * @param second the second key
+     */
+    public void lock(Object first, Object second) {
+        final int a = indexOf(first);
+        final int b = indexOf(second);
+        locks[Math.min(a, b)].lock();
+        if (a != b) {
+            locks[Math.max(a, b)].lock();
+        }
+    }
+
+    /**
+     * Releases the locks acquired by {@link #lock(Object, Object)}.
+     *
+     * @param first the first key
+     * @param second the second key
+     */
+    public void unlock(Object first, Object second) {
+        final int a = indexOf(first);
+        final int b = indexOf(second);
+        if (a != b) {
+            locks[Math.max(a, b)].unlock();
+        }
+        locks[Math.min(a, b)].unlock();
+    }
+
+    private int indexOf(Object key) {
+        int hash = key.hashCode();
+        // spread the bits, taken from java.util.HashMap
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return hash & mask;
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Moves blobs of a tiered {@link FileSystemStore} between its hot and cold directory.
+ * Blobs queued for promotion are moved as soon as possible, cold blobs are demoted
+ * during periodic passes over the hot tier. Both share a limited byte budget.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class TierMover implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TierMover.class);
+
+    private final FileSystemStore store;
+
+    private final BlockingQueue<String> promotions;
+
+    private final long bytesPerSecond;
+
+    private final long intervalNanos;
+
+    private long started;
+
+    private long moved;
+
+    TierMover(FileSystemStore store, BlockingQueue<String> promotions, long bytesPerSecond,
+        long interval, TimeUnit unit) {
+        Preconditions.checkArgument(bytesPerSecond > 0, "BytesPerSecond must be positive");
+        this.store = Preconditions.checkNotNull(store, "Store");
+        this.promotions = Preconditions.checkNotNull(promotions, "Promotions");
+        this.bytesPerSecond = bytesPerSecond;
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    @Override
+    public void run() {
+        started = System.nanoTime();
+        long nextPass = started;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final long now = System.nanoTime();
+                if (now - nextPass >= 0) {
+                    demote();
+                    nextPass = System.nanoTime() + intervalNanos;
+                    continue;
+                }
+                final String identifier = promotions.poll(nextPass - now, TimeUnit.NANOSECONDS);
+                if (identifier != null) {
+                    promote(identifier);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Tier mover of {} stopped", store.getDirectory());
+        }
+    }
+
+    private void promote(String identifier) throws InterruptedException {
+        try {
+            throttle(store.promote(identifier));
+        } catch (IOException e) {
+            LOG.warn("Unable to promote " + identifier, e);
+        }
+    }
+
+    /**
+     * Demotes all cold blobs of the hot tier once, promoting queued blobs in between.
+     */
+    private void demote() throws InterruptedException {
+        store.decayAccesses();
+        long blobs = 0;
+        try {
+            final Iterator<String> identifiers = store.hotIdentifiers();
+            while (identifiers.hasNext()) {
+                final String identifier = identifiers.next();
+                try {
+                    final long bytes = store.demote(identifier);
+                    if (bytes >= 0) blobs++;
+                    throttle(bytes);
+                } catch (IOException e) {
+                    LOG.warn("Unable to demote " + identifier, e);
+                }
+                final String promotion = promotions.poll();
+                if (promotion != null) {
+                    promote(promotion);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to list hot tier of " + store.getDirectory(), e);
+        }
+        LOG.info("Demoted {} blobs of {}", blobs, store.getDirectory());
+    }
+
+    private void throttle(long bytes) throws InterruptedException {
+        if (bytes <= 0) return;
+        moved += bytes;
+        final long expected = (long) (TimeUnit.SECONDS.toNanos(1) * (double) moved / bytesPerSecond);
+        final long elapsed = System.nanoTime() - started;
+        if (expected > elapsed) {
+            TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+        } else if (elapsed - expected > TimeUnit.SECONDS.toNanos(1)) {
+            // do not accumulate budget while idle
+            started = System.nanoTime();
+            moved = 0;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An append-only log of identifiers which have been deleted but whose files
+ * have not been removed yet.
+ *
+ * <p>
+ *   Records are kept in an {@link IdentifierLog} like those of the {@link FileIndex}.
+ *   Unlike the index, the log can not be rebuilt from the store, so loading keeps every
+ *   valid record up to the first truncated or corrupt one, which is what a crash during
+ *   an append leaves behind. The file is deleted once no tombstone is pending anymore.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class TombstoneLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TombstoneLog.class);
+
+    private final IdentifierLog log;
+
+    private final Set<String> identifiers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    TombstoneLog(Path file) {
+        this.log = new IdentifierLog(Preconditions.checkNotNull(file, "File"));
+    }
+
+    /**
+     * Replays the log from disk.
+     *
+     * @return all pending tombstones
+     * @throws IOException if reading failed
+     */
+    public synchronized Set<String> load() throws IOException {
+        final IdentifierLog.State state = log.replay(identifiers);
+        if (state == IdentifierLog.State.MISSING) {
+            return ImmutableSet.of();
+        } else if (state == IdentifierLog.State.CORRUPT) {
+            LOG.warn("Ignoring corrupt tail of {}", log.getFile());
+        }
+
+        LOG.info("Replayed {} pending tombstones from {}", identifiers.size(), log.getFile());
+        // drops a corrupt tail and the delete records
+        compact();
+        return snapshot();
+    }
+
+    /**
+     * Records a tombstone for the given identifier.
+     *
+     * @param identifier the identifier
+     * @param force whether the record has to be forced to disk
+     * @return false if the identifier already had a tombstone
+     * @throws IOException if appending failed
+     */
+    public synchronized boolean add(String identifier, boolean force) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (!identifiers.add(identifier)) return false;
+        log.add(identifier);
+        if (force) {
+            log.force();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the tombstone of the given identifier after its file has been deleted.
+     *
+     * @param identifier the identifier
+     * @throws IOException if appending failed
+     */
+    public synchronized void remove(String identifier) throws IOException {
+        Preconditions.checkNotNull(identifier, "Identifier");
+        if (!identifiers.remove(identifier)) return;
+        if (identifiers.isEmpty()) {
+            // nothing pending, no need to keep a log
+            log.delete();
+        } else {
+            log.remove(identifier);
+            if (log.needsCompaction(identifiers.size())) {
+                compact();
+            }
+        }
+    }
+
+    public boolean contains(String identifier) {
+        return identifiers.contains(identifier);
+    }
+
+    public boolean isEmpty() {
+        return identifiers.isEmpty();
+    }
+
+    public Set<String> snapshot() {
+        return ImmutableSet.copyOf(identifiers);
+    }
+
+    private void compact() throws IOException {
+        if (identifiers.isEmpty()) {
+            log.delete();
+        } else {
+            log.compact(identifiers);
+        }
+    }
+
+    /**
+     * Releases the underlying file. Pending tombstones stay on disk.
+     *
+     * @throws IOException if closing failed
+     */
+    public synchronized void close() throws IOException {
+        log.close(false);
+    }
+
+}
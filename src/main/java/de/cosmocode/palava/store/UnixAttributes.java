@@ -0,0 +1,195 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Resolved unix owner, group and permissions which are applied to stored files
+ * using a {@link PosixFileAttributeView} instead of forking {@code chown}/{@code chmod}.
+ *
+ * <p>
+ *   The owner uses the {@code chown} syntax ({@code user}, {@code user:group} or
+ *   {@code :group}). The obsolete {@code user.group} form is not supported, because
+ *   dots are valid in user names. The permissions may be given in octal
+ *   ({@code 640}, {@code 0640}) or symbolic ({@code rw-r-----}) notation.
+ *   Principals are looked up once and cached in this instance.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class UnixAttributes {
+
+    private static final FileAttribute<?>[] NO_ATTRIBUTES = new FileAttribute<?>[0];
+
+    private static final UnixAttributes NONE = new UnixAttributes(null, null, null);
+
+    private static final PosixFilePermission[] BITS = {
+        PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+        PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+        PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private final UserPrincipal owner;
+
+    private final GroupPrincipal group;
+
+    private final Set<PosixFilePermission> permissions;
+
+    private final FileAttribute<?>[] fileAttributes;
+
+    private UnixAttributes(@Nullable UserPrincipal owner, @Nullable GroupPrincipal group,
+        @Nullable Set<PosixFilePermission> permissions) {
+        this.owner = owner;
+        this.group = group;
+        this.permissions = permissions;
+        if (permissions == null) {
+            this.fileAttributes = NO_ATTRIBUTES;
+        } else {
+            this.fileAttributes = new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(permissions)};
+        }
+    }
+
+    /**
+     * Returns an instance which does not change any file attributes.
+     *
+     * @return an empty instance
+     */
+    public static UnixAttributes none() {
+        return NONE;
+    }
+
+    /**
+     * Parses and resolves the given owner and permission specification.
+     *
+     * @param fileSystem the file system used to look up principals
+     * @param owner the owner in chown syntax, may be null
+     * @param permissions the permissions in octal or symbolic notation, may be null
+     * @return the resolved attributes
+     * @throws IOException if the owner or group could not be resolved
+     * @throws IllegalArgumentException if the permissions are malformed
+     */
+    public static UnixAttributes of(FileSystem fileSystem, @Nullable String owner,
+        @Nullable String permissions) throws IOException {
+        Preconditions.checkNotNull(fileSystem, "FileSystem");
+        if (owner == null && permissions == null) return NONE;
+
+        UserPrincipal user = null;
+        GroupPrincipal group = null;
+
+        if (owner != null) {
+            final UserPrincipalLookupService lookup = fileSystem.getUserPrincipalLookupService();
+            // user names may contain dots, e.g. first.last
+            final int separator = owner.indexOf(':');
+            final String userName = separator == -1 ? owner : owner.substring(0, separator);
+            final String groupName = separator == -1 ? "" : owner.substring(separator + 1);
+            if (userName.length() > 0) {
+                user = lookup.lookupPrincipalByName(userName);
+            }
+            if (groupName.length() > 0) {
+                group = lookup.lookupPrincipalByGroupName(groupName);
+            }
+        }
+
+        return new UnixAttributes(user, group, permissions == null ? null : parsePermissions(permissions));
+    }
+
+    private static Set<PosixFilePermission> parsePermissions(String permissions) {
+        if (permissions.length() == 9 && !Character.isDigit(permissions.charAt(0))) {
+            return PosixFilePermissions.fromString(permissions);
+        }
+
+        final int mode;
+        try {
+            mode = Integer.parseInt(permissions, 8);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unsupported unix permissions " + permissions, e);
+        }
+        Preconditions.checkArgument(mode >= 0 && mode <= 0777, "Unsupported unix permissions %s", permissions);
+
+        final Set<PosixFilePermission> set = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < BITS.length; i++) {
+            if ((mode & (1 << i)) != 0) {
+                set.add(BITS[i]);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Checks whether this instance changes any attributes at all.
+     *
+     * @return true if neither owner, group nor permissions are configured
+     */
+    public boolean isEmpty() {
+        return owner == null && group == null && permissions == null;
+    }
+
+    /**
+     * Provides the attributes which should be passed when creating a file. The
+     * permissions are still subject to the umask, which is why {@link #apply(Path)}
+     * has to be called after creation.
+     *
+     * @return the attributes for file creation, never null
+     */
+    public FileAttribute<?>[] asFileAttributes() {
+        return fileAttributes.clone();
+    }
+
+    /**
+     * Applies owner, group and permissions to the given path.
+     *
+     * @param path the target path
+     * @throws IOException if changing any attribute failed
+     */
+    public void apply(Path path) throws IOException {
+        if (isEmpty()) return;
+        final PosixFileAttributeView view = Files.getFileAttributeView(
+            path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            throw new IOException("Posix file attributes are not supported for " + path);
+        }
+        if (owner != null) {
+            view.setOwner(owner);
+        }
+        if (group != null) {
+            view.setGroup(group);
+        }
+        if (permissions != null) {
+            view.setPermissions(permissions);
+        }
+    }
+
+}
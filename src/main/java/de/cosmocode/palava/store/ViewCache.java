@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A least recently used cache of memory mapped files, bounded by the total
+ * number of mapped bytes and the number of mappings.
+ *
+ * <p>
+ *   Callers always receive a read-only duplicate, so their position and limit
+ *   are independent of each other. Evicted mappings are released once the
+ *   last duplicate has been garbage collected.
+ * </p>
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class ViewCache {
+
+    private final long maxBytes;
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, ByteBuffer> buffers = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    ViewCache(long maxBytes, int maxEntries) {
+        Preconditions.checkArgument(maxBytes > 0, "MaxBytes must be positive");
+        Preconditions.checkArgument(maxEntries > 0, "MaxEntries must be positive");
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Looks up the mapping for the given identifier.
+     *
+     * @param identifier the identifier
+     * @return a read-only duplicate of the cached buffer, or null if not cached
+     */
+    @Nullable
+    public ByteBuffer get(String identifier) {
+        final ByteBuffer buffer;
+        synchronized (this) {
+            buffer = buffers.get(identifier);
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Caches the given mapping, evicting least recently used entries if necessary.
+     * Mappings larger than the maximum number of bytes are not cached.
+     *
+     * @param identifier the identifier
+     * @param buffer the mapping, will not be handed out directly
+     * @return a read-only duplicate of the given buffer
+     */
+    public ByteBuffer put(String identifier, ByteBuffer buffer) {
+        final ByteBuffer view = buffer.asReadOnlyBuffer();
+        final int size = view.capacity();
+        if (size > maxBytes) return view;
+
+        synchronized (this) {
+            final ByteBuffer previous = buffers.put(identifier, view);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += size;
+            final Iterator<Map.Entry<String, ByteBuffer>> iterator = buffers.entrySet().iterator();
+            while ((bytes > maxBytes || buffers.size() > maxEntries) && iterator.hasNext()) {
+                final Map.Entry<String, ByteBuffer> eldest = iterator.next();
+                bytes -= eldest.getValue().capacity();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return view.duplicate();
+    }
+
+    /**
+     * Removes the mapping for the given identifier.
+     *
+     * @param identifier the identifier
+     */
+    public synchronized void invalidate(String identifier) {
+        final ByteBuffer previous = buffers.remove(identifier);
+        if (previous != null) {
+            bytes -= previous.capacity();
+        }
+    }
+
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), evictions.get(), buffers.size(), bytes);
+    }
+
+}
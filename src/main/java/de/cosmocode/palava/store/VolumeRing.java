@@ -0,0 +1,73 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A consistent hash ring which assigns identifiers to volumes. Every volume owns
+ * a number of points on the ring proportional to its weight, so adding a volume
+ * only moves the identifiers which now belong to it.
+ *
+ * @since 1.3
+ * @author Willi Schoenborn
+ */
+final class VolumeRing<V> {
+
+    private final NavigableMap<Long, V> ring = new TreeMap<Long, V>();
+
+    private final List<V> volumes;
+
+    /**
+     * Creates a new ring.
+     *
+     * @param points the number of points of every volume, keyed by a stable volume id
+     * @param volumes the volumes, keyed by the same ids
+     */
+    VolumeRing(Map<String, Integer> points, Map<String, V> volumes) {
+        Preconditions.checkArgument(!volumes.isEmpty(), "Volumes must not be empty");
+        for (Map.Entry<String, V> entry : volumes.entrySet()) {
+            final Integer count = Preconditions.checkNotNull(points.get(entry.getKey()), "Points of %s", entry.getKey());
+            for (int i = 0; i < count.intValue(); i++) {
+                ring.put(HashFileIdentifier.hash(entry.getKey() + "#" + i), entry.getValue());
+            }
+        }
+        this.volumes = ImmutableList.copyOf(volumes.values());
+    }
+
+    /**
+     * Provides the volume which owns the given identifier.
+     *
+     * @param identifier the identifier
+     * @return the owning volume
+     */
+    public V get(String identifier) {
+        final Map.Entry<Long, V> entry = ring.ceilingEntry(HashFileIdentifier.hash(identifier));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    public List<V> getVolumes() {
+        return volumes;
+    }
+
+}
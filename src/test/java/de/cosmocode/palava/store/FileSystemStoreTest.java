@@ -16,9 +16,44 @@
 
 package de.cosmocode.palava.store;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipalNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.InflaterInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -27,6 +62,13 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
 /**
  * Tests {@link FileSystemStore}.
  *
@@ -105,4 +147,1082 @@ public final class FileSystemStoreTest extends AbstractStoreTest {
         Assert.assertTrue(directory.list().length > 0);
     }
     
+    /**
+     * Tests whether a failing stream during {@link FileSystemStore#create(InputStream, String)}
+     * leaves neither a truncated file nor a temporary file behind.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void failedCreateLeavesNoFile() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setDurability(Durability.DIRECTORY);
+        final InputStream stream = new InputStream() {
+            
+            private int count;
+            
+            @Override
+            public int read() throws IOException {
+                if (++count > 1024) {
+                    throw new IOException("Broken stream");
+                }
+                return 42;
+            }
+            
+        };
+        try {
+            unit.create(stream, "failed");
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            Assert.assertEquals("Broken stream", e.getMessage());
+        }
+        Assert.assertFalse(unit.getFileIdentifier().toFile(directory, "failed").exists());
+        Assert.assertTrue(unit.list().isEmpty());
+        Assert.assertEquals(0, new File(directory, FileSystemStore.STAGING).list().length);
+    }
+    
+    /**
+     * Tests whether concurrent writers using {@link Durability#GROUP} all complete.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void groupCommit() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setDurability(Durability.GROUP);
+        final ExecutorService service = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> futures = Lists.newArrayList();
+            for (int i = 0; i < 64; i++) {
+                futures.add(service.submit(new Callable<String>() {
+                    
+                    @Override
+                    public String call() throws IOException {
+                        return unit.create(new ByteArrayInputStream(new byte[512]));
+                    }
+                    
+                }));
+            }
+            final Set<String> identifiers = Sets.newHashSet();
+            for (Future<String> future : futures) {
+                identifiers.add(future.get());
+            }
+            Assert.assertEquals(identifiers, unit.list());
+        } finally {
+            service.shutdown();
+            unit.dispose();
+        }
+    }
+    
+    /**
+     * Tests whether the identifier index is persisted on dispose and rebuilt
+     * by scanning once it has been corrupted.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void index() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setIndexed(true);
+        final String first = unit.create(new ByteArrayInputStream(new byte[16]));
+        final String second = unit.create(new ByteArrayInputStream(new byte[16]));
+        unit.delete(first);
+        Assert.assertFalse(unit.contains(first));
+        Assert.assertTrue(unit.contains(second));
+        unit.dispose();
+        
+        final FileSystemStore reopened = unit();
+        reopened.setIndexed(true);
+        Assert.assertEquals(Sets.newHashSet(second), reopened.list());
+        reopened.dispose();
+        
+        FileUtils.writeStringToFile(new File(directory, FileSystemStore.INDEX), "garbage");
+        final FileSystemStore rebuilt = unit();
+        rebuilt.setIndexed(true);
+        Assert.assertEquals(Sets.newHashSet(second), rebuilt.list());
+        rebuilt.dispose();
+    }
+    
+    /**
+     * Tests that an index whose appends did not reach the disk before a crash is
+     * rebuilt instead of being trusted.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void indexAfterCrash() throws IOException {
+        final File file = new File(directory, FileSystemStore.INDEX);
+        final FileSystemStore unit = unit();
+        unit.setIndexed(true);
+        final String first = unit.create(new ByteArrayInputStream(new byte[16]));
+        unit.dispose();
+        
+        final FileSystemStore crashed = unit();
+        crashed.setIndexed(true);
+        Assert.assertEquals(Sets.newHashSet(first), crashed.list());
+        // what is on disk if the following append is lost
+        final byte[] durable = FileUtils.readFileToByteArray(file);
+        final String second = crashed.create(new ByteArrayInputStream(new byte[16]));
+        FileUtils.writeByteArrayToFile(file, durable);
+        
+        final FileSystemStore restarted = unit();
+        restarted.setIndexed(true);
+        Assert.assertEquals(Sets.newHashSet(first, second), restarted.list());
+        restarted.dispose();
+    }
+    
+    /**
+     * Tests whether paging through {@link FileSystemStore#list(String, String, int)}
+     * returns every matching identifier exactly once.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void listPages() throws IOException {
+        final FileSystemStore unit = unit();
+        final Set<String> expected = Sets.newHashSet();
+        for (int i = 0; i < 50; i++) {
+            final String identifier = String.format("ab%04d", i);
+            unit.create(new ByteArrayInputStream(new byte[1]), identifier);
+            expected.add(identifier);
+        }
+        unit.create(new ByteArrayInputStream(new byte[1]), "zz0000");
+        
+        final List<String> actual = Lists.newArrayList();
+        String token = null;
+        do {
+            final IdentifierPage page = unit.list("ab", token, 7);
+            Assert.assertTrue(page.getIdentifiers().size() <= 7);
+            actual.addAll(page.getIdentifiers());
+            token = page.getToken();
+        } while (token != null);
+        
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected, Sets.newHashSet(actual));
+        Assert.assertEquals(10, Iterators.size(unit.iterator("ab001")));
+    }
+    
+    /**
+     * Tests whether the view cache hands out independent buffers and is
+     * invalidated on delete.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void viewCache() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setViewCacheMaxBytes(1024 * 1024);
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        final ByteBuffer first = unit.view(identifier);
+        first.get();
+        final ByteBuffer second = unit.view(identifier);
+        Assert.assertEquals(3, second.remaining());
+        Assert.assertTrue(second.isReadOnly());
+        Assert.assertEquals(1, unit.getViewCacheStatistics().getHits());
+        Assert.assertEquals(1, unit.getViewCacheStatistics().getMisses());
+        unit.delete(identifier);
+        Assert.assertEquals(0, unit.getViewCacheStatistics().getEntries());
+    }
+    
+    /**
+     * Tests {@link FileSystemStore#transferTo(String, long, long, java.nio.channels.WritableByteChannel)}
+     * using a channel which is neither a socket nor a file channel.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void transferRange() throws IOException {
+        final FileSystemStore unit = unit();
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(3, unit.transferTo(identifier, 1, 3, Channels.newChannel(output)));
+        Assert.assertArrayEquals(new byte[] {2, 3, 4}, output.toByteArray());
+        output.reset();
+        Assert.assertEquals(5, unit.transferTo(identifier, Channels.newChannel(output)));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, output.toByteArray());
+    }
+    
+    /**
+     * Tests that transferring to a channel in non-blocking mode is rejected.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void transferNonBlocking() throws IOException {
+        final FileSystemStore unit = unit();
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        final Pipe pipe = Pipe.open();
+        try {
+            pipe.sink().configureBlocking(false);
+            unit.transferTo(identifier, pipe.sink());
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+            unit.delete(identifier);
+        }
+    }
+    
+    /**
+     * Tests ranged {@link FileSystemStore#view(String, long, int)} and
+     * {@link FileSystemStore#read(String, long, long)}.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void ranges() throws IOException {
+        final FileSystemStore unit = unit();
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}));
+        final ByteBuffer view = unit.view(identifier, 3, 2);
+        Assert.assertEquals(2, view.remaining());
+        Assert.assertEquals(4, view.get());
+        final InputStream stream = unit.read(identifier, 1, 3);
+        try {
+            Assert.assertArrayEquals(new byte[] {2, 3, 4}, IOUtils.toByteArray(stream));
+        } finally {
+            stream.close();
+        }
+        try {
+            unit.view(identifier, 4, 2);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("exceeds"));
+        }
+    }
+    
+    /**
+     * Tests a round trip through {@link AsyncFileSystemStore}.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void async() throws Exception {
+        final AsyncFileSystemStore unit = new AsyncFileSystemStore(unit());
+        try {
+            final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3})).get();
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, IOUtils.toByteArray(unit.read(identifier).get()));
+            Assert.assertEquals(Sets.newHashSet(identifier), unit.list().get());
+            unit.delete(identifier).get();
+            try {
+                unit.read(identifier).get();
+                Assert.fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            unit.dispose();
+        }
+    }
+    
+    /**
+     * Tests whether {@link FileSystemStore#createAll(java.util.Map)} and
+     * {@link FileSystemStore#deleteAll(Iterable)} report per item results
+     * and leave an empty directory behind.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void batch() throws IOException {
+        final FileSystemStore unit = unit();
+        final Map<String, InputStream> streams = Maps.newHashMap();
+        for (int i = 0; i < 100; i++) {
+            streams.put(String.format("%02d%04d", i % 7, i), new ByteArrayInputStream(new byte[8]));
+        }
+        final BatchResult created = unit.createAll(streams);
+        Assert.assertTrue(created.isSuccessful());
+        Assert.assertEquals(streams.keySet(), unit.list());
+        
+        final List<String> identifiers = Lists.newArrayList(streams.keySet());
+        identifiers.add("missing");
+        final BatchResult deleted = unit.deleteAll(identifiers);
+        Assert.assertEquals(streams.keySet(), deleted.getSucceeded());
+        Assert.assertEquals(Sets.newHashSet("missing"), deleted.getFailures().keySet());
+        Assert.assertEquals(0, directory.list().length);
+    }
+    
+    /**
+     * Stresses concurrent creates and deletes in shared shard directories. Every thread
+     * repeatedly creates and deletes its own identifiers, which constantly prunes and
+     * recreates the directories used by the other threads. Finally all threads race
+     * for the same identifier, exactly one of them may win.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void concurrentCreateAndDelete() throws Exception {
+        final FileSystemStore unit = unit();
+        final int threads = 16;
+        final ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(service.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws IOException {
+                        for (int round = 0; round < 200; round++) {
+                            final String identifier = String.format("ab%02d%02d%04d", round % 3, thread, round);
+                            final byte[] content = identifier.getBytes(Charsets.UTF_8);
+                            unit.create(new ByteArrayInputStream(content), identifier);
+                            Assert.assertArrayEquals(content, IOUtils.toByteArray(unit.read(identifier)));
+                            unit.delete(identifier);
+                        }
+                        return null;
+                    }
+                    
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            Assert.assertEquals(0, directory.list().length);
+            
+            final AtomicInteger winners = new AtomicInteger();
+            final List<Future<Void>> racers = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                final byte[] content = {(byte) i};
+                racers.add(service.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws IOException {
+                        try {
+                            unit.create(new ByteArrayInputStream(content), "contended");
+                            winners.incrementAndGet();
+                        } catch (IllegalStateException e) {
+                            // lost the race
+                        }
+                        return null;
+                    }
+                    
+                }));
+            }
+            for (Future<Void> future : racers) {
+                future.get();
+            }
+            Assert.assertEquals(1, winners.get());
+            Assert.assertEquals(1, IOUtils.toByteArray(unit.read("contended")).length);
+        } finally {
+            service.shutdown();
+        }
+    }
+    
+    /**
+     * Tests whether a store stays readable while being migrated from the
+     * {@link DefaultFileIdentifier} to a {@link HashFileIdentifier} layout.
+     * 
+     * @throws IOException should not happen
+     */
+    @Test
+    public void migrateLayout() throws IOException {
+        final FileSystemStore legacy = unit();
+        final Set<String> identifiers = Sets.newHashSet();
+        for (int i = 0; i < 20; i++) {
+            identifiers.add(legacy.create(new ByteArrayInputStream(new byte[] {(byte) i})));
+        }
+        
+        final FileSystemStore unit = unit();
+        final HashFileIdentifier layout = new HashFileIdentifier(2, 16);
+        unit.setFileIdentifier(layout);
+        unit.setLegacyFileIdentifier(new DefaultFileIdentifier());
+        Assert.assertEquals(identifiers, unit.list());
+        for (String identifier : identifiers) {
+            Assert.assertTrue(unit.contains(identifier));
+        }
+        
+        Assert.assertEquals(20, new LayoutMigration(unit).run());
+        Assert.assertEquals(0, new LayoutMigration(unit).run());
+        for (String identifier : identifiers) {
+            Assert.assertTrue(layout.toFile(directory, identifier).exists());
+        }
+        
+        unit.setLegacyFileIdentifier(null);
+        Assert.assertEquals(identifiers, unit.list());
+    }
+    
+    /**
+     * Tests that adding a volume to a {@link MultiVolumeStore} keeps all identifiers readable
+     * and moves some of them to the new volume.
+     *
+     * @throws IOException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void multiVolume() throws IOException, InterruptedException {
+        final FileSystemStore first = new FileSystemStore(new File(directory, "first"));
+        final MultiVolumeStore single = new MultiVolumeStore(Lists.newArrayList(first));
+        Assert.assertFalse(single.isRebalancing());
+        final Map<String, Byte> contents = Maps.newHashMap();
+        for (int i = 0; i < 100; i++) {
+            contents.put(single.create(new ByteArrayInputStream(new byte[] {(byte) i})), (byte) i);
+        }
+        Assert.assertEquals(contents.keySet(), single.list());
+        single.dispose();
+        
+        final FileSystemStore second = new FileSystemStore(new File(directory, "second"));
+        final MultiVolumeStore unit = new MultiVolumeStore(Lists.newArrayList(
+            new FileSystemStore(new File(directory, "first")), second));
+        Assert.assertTrue(unit.isRebalancing());
+        for (Map.Entry<String, Byte> entry : contents.entrySet()) {
+            Assert.assertEquals(entry.getValue().byteValue(), unit.view(entry.getKey()).get());
+        }
+        
+        unit.initialize();
+        for (int i = 0; i < 100 && unit.isRebalancing(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(unit.isRebalancing());
+        Assert.assertFalse(second.list().isEmpty());
+        Assert.assertEquals(contents.keySet(), unit.list());
+        for (Map.Entry<String, Byte> entry : contents.entrySet()) {
+            Assert.assertEquals(entry.getValue().byteValue(), unit.view(entry.getKey()).get());
+        }
+        for (String identifier : contents.keySet()) {
+            unit.delete(identifier);
+        }
+        Assert.assertTrue(unit.list().isEmpty());
+        unit.dispose();
+    }
+    
+    /**
+     * Tests operation metrics and their registration as MBean.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void metrics() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setJmxName("test");
+        unit.initialize();
+        final ObjectName name = new ObjectName(StoreMetrics.DOMAIN + ":type=FileSystemStore,name=\"test\"");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertTrue(server.isRegistered(name));
+        
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[100]));
+        Assert.assertEquals(100, unit.view(identifier).remaining());
+        final InputStream partial = unit.read(identifier);
+        Assert.assertEquals(10, partial.read(new byte[10]));
+        partial.close();
+        final InputStream range = unit.read(identifier, 50, 50);
+        Assert.assertEquals(0, range.read());
+        range.close();
+        unit.list();
+        unit.delete(identifier);
+        try {
+            unit.view(identifier);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        
+        final StoreMetrics metrics = unit.getMetrics();
+        Assert.assertEquals(1, metrics.getCreate().getCount());
+        Assert.assertEquals(100, metrics.getBytesIn());
+        Assert.assertEquals(2, metrics.getView().getCount());
+        Assert.assertEquals(1, metrics.getView().getErrors());
+        Assert.assertEquals(2, metrics.getRead().getCount());
+        Assert.assertEquals(111, metrics.getBytesOut());
+        Assert.assertEquals(1, metrics.getList().getCount());
+        Assert.assertEquals(1, metrics.getDelete().getCount());
+        Assert.assertTrue(metrics.getCreate().getP50() <= metrics.getCreate().getMax());
+        Assert.assertEquals(1L, ((CompositeData) server.getAttribute(name, "Create")).get("count"));
+        
+        unit.dispose();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+    
+    /**
+     * Tests transparent compression of compressible content and storing
+     * incompressible content as is.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void compression() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setCompression(true);
+        
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append("{\"id\": ").append(i).append(", \"name\": \"entry\"}\n");
+        }
+        final byte[] text = builder.toString().getBytes(Charsets.UTF_8);
+        final String compressed = unit.create(new ByteArrayInputStream(text));
+        Assert.assertEquals("deflate", unit.getEncoding(compressed));
+        Assert.assertTrue(unit.storedFile(compressed).length() < text.length / 3);
+        Assert.assertArrayEquals(text, IOUtils.toByteArray(unit.read(compressed)));
+        final File decoded = unit.readFile(compressed);
+        Assert.assertFalse(decoded.equals(unit.storedFile(compressed)));
+        Assert.assertArrayEquals(text, FileUtils.readFileToByteArray(decoded));
+        Assert.assertTrue(decoded.delete());
+        final ByteBuffer view = unit.view(compressed);
+        final byte[] viewed = new byte[view.remaining()];
+        view.get(viewed);
+        Assert.assertArrayEquals(text, viewed);
+        Assert.assertEquals(text[5000], unit.view(compressed, 5000, 10).get());
+        Assert.assertEquals(text[5000], unit.read(compressed, 5000, 10).read());
+        final ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        Assert.assertEquals(100, unit.transferTo(compressed, 100, 100, Channels.newChannel(transferred)));
+        Assert.assertEquals(text[100], transferred.toByteArray()[0]);
+        Assert.assertArrayEquals(text, IOUtils.toByteArray(
+            new InflaterInputStream(unit.readEncoded(compressed))));
+        Assert.assertArrayEquals(text, IOUtils.toByteArray(new AsyncFileSystemStore(unit).read(compressed).get()));
+        
+        final byte[] random = IOUtils.toByteArray(getClass().getClassLoader().getResourceAsStream("willi.png"));
+        final String raw = unit.create(new ByteArrayInputStream(random));
+        Assert.assertNull(unit.getEncoding(raw));
+        Assert.assertEquals(random.length, unit.readFile(raw).length());
+        Assert.assertArrayEquals(random, IOUtils.toByteArray(unit.read(raw)));
+        
+        final byte[] ambiguous = new byte[] {(byte) 0x89, 'P', 'S', 'Z', '\r', '\n', 0x1A, '\n', 1, 2, 3};
+        final String tricky = unit.create(new ByteArrayInputStream(ambiguous));
+        Assert.assertNull(unit.getEncoding(tricky));
+        Assert.assertArrayEquals(ambiguous, IOUtils.toByteArray(unit.read(tricky)));
+        Assert.assertArrayEquals(ambiguous, FileUtils.readFileToByteArray(unit.readFile(tricky)));
+        Assert.assertEquals(ambiguous.length, unit.view(tricky).remaining());
+        
+        unit.setCompression(false);
+        Assert.assertArrayEquals(text, IOUtils.toByteArray(unit.read(compressed)));
+    }
+    
+    /**
+     * Tests checksums, verification on read and the scrubber.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void checksums() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setChecksum(ChecksumType.SHA256);
+        unit.setCompression(true);
+        final byte[] text = Strings.repeat("checksum ", 1000).getBytes(Charsets.UTF_8);
+        final String first = unit.create(new ByteArrayInputStream(text));
+        final String second = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        unit.setChecksum(ChecksumType.CRC32C);
+        final String third = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        Assert.assertEquals("sha256:039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81",
+            unit.getChecksum(second));
+        Assert.assertEquals("crc32c:f130f21e", unit.getChecksum(third));
+        
+        unit.setVerifyChecksums(true);
+        Assert.assertArrayEquals(text, IOUtils.toByteArray(unit.read(first)));
+        Assert.assertEquals(3, unit.view(second).remaining());
+        
+        final File corrupt = unit.readFile(second);
+        final RandomAccessFile file = new RandomAccessFile(corrupt, "rw");
+        try {
+            file.write(9);
+        } finally {
+            file.close();
+        }
+        try {
+            IOUtils.toByteArray(unit.read(second));
+            Assert.fail("Expected ChecksumMismatchException");
+        } catch (ChecksumMismatchException e) {
+            Assert.assertEquals(second, e.getIdentifier());
+        }
+        try {
+            unit.view(second);
+            Assert.fail("Expected ChecksumMismatchException");
+        } catch (ChecksumMismatchException e) {
+            Assert.assertEquals(second, e.getIdentifier());
+        }
+        
+        final List<String> mismatches = Lists.newArrayList();
+        final ScrubListener listener = new ScrubListener() {
+            
+            @Override
+            public void mismatch(ChecksumMismatchException exception) {
+                mismatches.add(exception.getIdentifier());
+            }
+            
+            @Override
+            public void completed(long blobs, long bytes, long count) {
+                Assert.assertEquals(2, blobs);
+            }
+            
+        };
+        Assert.assertEquals(1, new Scrubber(unit, 1024 * 1024, 1, TimeUnit.DAYS, listener).scrub());
+        Assert.assertEquals(Lists.newArrayList(second), mismatches);
+    }
+    
+    /**
+     * Tests the off-heap cache for small blobs.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void slabCache() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setSlabCacheMaxBytes(4 * 1024 * 1024);
+        unit.setSlabCacheWriteThrough(true);
+        
+        final String small = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        final String large = unit.create(new ByteArrayInputStream(new byte[64 * 1024]));
+        Assert.assertEquals(1, unit.getSlabCacheStatistics().getEntries());
+        
+        final ByteBuffer view = unit.view(small);
+        Assert.assertTrue(view.isReadOnly());
+        Assert.assertEquals(3, view.remaining());
+        Assert.assertEquals(2, view.get(1));
+        Assert.assertEquals(64 * 1024, unit.view(large).remaining());
+        Assert.assertEquals(1, unit.getSlabCacheStatistics().getHits());
+        Assert.assertEquals(1, unit.getSlabCacheStatistics().getEntries());
+        
+        unit.delete(small);
+        Assert.assertEquals(0, unit.getSlabCacheStatistics().getEntries());
+        Assert.assertEquals(0, unit.getSlabCacheStatistics().getBytes());
+        unit.delete(large);
+    }
+    
+    /**
+     * Tests that the slab cache rejects maximum sizes below a single slab.
+     */
+    @Test
+    public void slabCacheMinimum() {
+        final FileSystemStore unit = unit();
+        unit.setSlabCacheMaxBytes(0);
+        unit.setSlabCacheMaxBytes(SlabCache.SLAB_SIZE);
+        try {
+            unit.setSlabCacheMaxBytes(SlabCache.SLAB_SIZE - 1);
+            Assert.fail("Expected a cache smaller than one slab to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("at least"));
+        }
+        try {
+            new SlabCache(64, 64);
+            Assert.fail("Expected a cache smaller than one slab to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("at least"));
+        }
+    }
+    
+    /**
+     * Tests that frequently read entries survive a scan in the slab cache.
+     */
+    @Test
+    public void slabCacheEviction() {
+        final SlabCache cache = new SlabCache(1024 * 1024, 1024);
+        final ByteBuffer content = ByteBuffer.wrap(new byte[1000]);
+        cache.put("cold", content);
+        cache.put("hot", content);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(cache.get("hot"));
+        }
+        for (int i = 0; i < 2000; i++) {
+            cache.put("scan" + i, content);
+        }
+        Assert.assertNotNull(cache.get("hot"));
+        Assert.assertNull(cache.get("cold"));
+        Assert.assertEquals(1024, cache.getStatistics().getEntries());
+        Assert.assertEquals(2000 + 2 - 1024, cache.getStatistics().getEvictions());
+    }
+    
+    /**
+     * Tests that a size class without memory takes over a slab of another class.
+     */
+    @Test
+    public void slabCacheRebalance() {
+        final SlabCache cache = new SlabCache(2 * 1024 * 1024, 1024);
+        final ByteBuffer large = ByteBuffer.wrap(new byte[1000]);
+        for (int i = 0; i < 3000; i++) {
+            cache.put("large" + i, large);
+        }
+        Assert.assertEquals(2048, cache.getStatistics().getEntries());
+        cache.put("small", ByteBuffer.wrap(new byte[100]));
+        Assert.assertNotNull(cache.get("small"));
+        Assert.assertEquals(1024 + 1, cache.getStatistics().getEntries());
+        Assert.assertNotNull(cache.get("large2999"));
+        cache.put("large", large);
+        Assert.assertNotNull(cache.get("small"));
+    }
+    
+    /**
+     * Tests that deferred deletes hide blobs immediately and that the reaper removes
+     * their files, including tombstones left behind by a previous instance.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void deferredDelete() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setDeferredDelete(true);
+        final String first = unit.create(new ByteArrayInputStream(new byte[] {1}));
+        final String second = unit.create(new ByteArrayInputStream(new byte[] {2}));
+        final String third = unit.create(new ByteArrayInputStream(new byte[] {3}));
+        final File firstFile = unit.readFile(first);
+        final File secondFile = unit.readFile(second);
+        final File thirdFile = unit.readFile(third);
+        
+        Assert.assertTrue(unit.deleteAll(Lists.newArrayList(third)).isSuccessful());
+        Assert.assertFalse(unit.contains(third));
+        // the reaper starts with initialize
+        Assert.assertTrue(thirdFile.exists());
+        unit.initialize();
+        awaitDeleted(thirdFile);
+        
+        unit.delete(first);
+        Assert.assertFalse(unit.contains(first));
+        Assert.assertEquals(Sets.newHashSet(second), unit.list());
+        try {
+            unit.read(first);
+            Assert.fail("Expected deleted blob to be invisible");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        awaitDeleted(firstFile);
+        unit.dispose();
+        
+        final TombstoneLog log = new TombstoneLog(new File(directory, FileSystemStore.TOMBSTONES).toPath());
+        log.load();
+        Assert.assertTrue(log.add(second, true));
+        log.close();
+        
+        final FileSystemStore restarted = unit();
+        Assert.assertFalse(restarted.contains(second));
+        restarted.initialize();
+        awaitDeleted(secondFile);
+        restarted.dispose();
+        Assert.assertEquals(0, directory.list().length);
+    }
+    
+    /**
+     * Tests that pre-created directories survive deletes and that known directories
+     * which vanished behind the store's back are created again.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void precreateDirectories() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setFileIdentifier(new HashFileIdentifier(2, 4));
+        unit.setPrecreateDirectories(true);
+        unit.initialize();
+        Assert.assertEquals(4, directory.list().length);
+        
+        final String identifier = unit.create(new ByteArrayInputStream(new byte[] {1}));
+        final File parent = unit.readFile(identifier).getParentFile();
+        unit.delete(identifier);
+        Assert.assertTrue(parent.isDirectory());
+        
+        FileUtils.deleteDirectory(parent.getParentFile());
+        unit.create(new ByteArrayInputStream(new byte[] {2}), identifier);
+        Assert.assertEquals(1, IOUtils.toByteArray(unit.read(identifier)).length);
+        unit.dispose();
+    }
+    
+    /**
+     * Tests the parallel scan.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void scan() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setBatchThreads(4);
+        final Set<String> identifiers = Sets.newHashSet();
+        for (int i = 0; i < 50; i++) {
+            identifiers.add(unit.create(new ByteArrayInputStream(new byte[i])));
+        }
+        
+        final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final ScanStatistics statistics = unit.scan(new ScanVisitor() {
+            
+            @Override
+            public void visit(String identifier, BasicFileAttributes attributes) {
+                visited.add(identifier);
+            }
+            
+        });
+        Assert.assertEquals(identifiers, visited);
+        Assert.assertEquals(50, statistics.getCount());
+        Assert.assertEquals(49 * 50 / 2, statistics.getBytes());
+        final long[] histogram = statistics.getHistogram();
+        Assert.assertEquals(1, histogram[0]);
+        Assert.assertEquals(1, histogram[1]);
+        Assert.assertEquals(16, histogram[5]);
+        Assert.assertEquals(18, histogram[6]);
+        
+        for (String identifier : identifiers) {
+            unit.delete(identifier);
+        }
+        Assert.assertEquals(0, unit.scan().getCount());
+    }
+    
+    /**
+     * Tests moving blobs between a hot and a cold tier, including recovery from
+     * an interrupted move.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void tiers() throws Exception {
+        final File cold = new File(directory.getParentFile(), "cold");
+        FileUtils.deleteDirectory(cold);
+        try {
+            final FileSystemStore unit = unit();
+            unit.setColdDirectory(cold);
+            unit.setTierBytesPerSecond(0);
+            unit.setTierMinAge(0);
+            unit.setPromoteThreshold(2);
+            unit.initialize();
+            
+            final String first = unit.create(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            final String second = unit.create(new ByteArrayInputStream(new byte[] {4}));
+            Assert.assertEquals(3, unit.demote(first));
+            Assert.assertEquals(-1, unit.demote(first));
+            Assert.assertTrue(unit.readFile(first).getPath().startsWith(cold.getPath()));
+            Assert.assertTrue(unit.contains(first));
+            Assert.assertEquals(Sets.newHashSet(first, second), unit.list());
+            final IdentifierPage page = unit.list(null, null, 1);
+            Assert.assertEquals(Lists.newArrayList(second), page.getIdentifiers());
+            Assert.assertEquals(Lists.newArrayList(first), unit.list(null, page.getToken(), 1).getIdentifiers());
+            Assert.assertEquals(2, unit.scan().getCount());
+            
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, IOUtils.toByteArray(unit.read(first)));
+            Assert.assertEquals(3, unit.promote(first));
+            Assert.assertTrue(unit.readFile(first).getPath().startsWith(directory.getPath()));
+            Assert.assertEquals(-1, unit.demote(first));
+            
+            Assert.assertEquals(1, unit.demote(second));
+            unit.dispose();
+            // an interrupted promotion leaves both copies
+            final FileIdentifier layout = new DefaultFileIdentifier();
+            FileUtils.copyFile(layout.toFile(cold, second), layout.toFile(directory, second));
+            
+            final FileSystemStore restarted = unit();
+            restarted.setColdDirectory(cold);
+            restarted.setTierBytesPerSecond(0);
+            restarted.initialize();
+            Assert.assertTrue(restarted.readFile(second).getPath().startsWith(directory.getPath()));
+            Assert.assertEquals(Sets.newHashSet(first, second), restarted.list());
+            restarted.delete(first);
+            restarted.delete(second);
+            Assert.assertFalse(restarted.contains(second));
+            Assert.assertFalse(layout.toFile(cold, second).exists());
+            Assert.assertEquals(0, directory.list().length);
+            restarted.dispose();
+        } finally {
+            FileUtils.deleteDirectory(cold);
+        }
+    }
+    
+    /**
+     * Tests capacity counters and quotas.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void quotas() throws Exception {
+        final FileSystemStore unit = unit();
+        unit.setQuotaBytes(100);
+        unit.setQuotaObjects(2);
+        unit.initialize();
+        for (int i = 0; i < 100 && !unit.getCapacity().isReconciled(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(unit.getCapacity().isReconciled());
+        
+        final String first = unit.create(new ByteArrayInputStream(new byte[40]));
+        try {
+            unit.create(new ByteArrayInputStream(new byte[70]));
+            Assert.fail("Expected byte quota to be exceeded");
+        } catch (QuotaExceededException e) {
+            Assert.assertEquals(100, e.getQuota());
+        }
+        Assert.assertEquals(1, unit.getCapacity().getObjects());
+        Assert.assertEquals(40, unit.getCapacity().getBytes());
+        
+        final String second = unit.create(new ByteArrayInputStream(new byte[10]));
+        try {
+            unit.create(new ByteArrayInputStream(new byte[1]));
+            Assert.fail("Expected object quota to be exceeded");
+        } catch (QuotaExceededException e) {
+            Assert.assertEquals(2, e.getQuota());
+        }
+        unit.delete(first);
+        Assert.assertEquals(1, unit.getCapacity().getObjects());
+        Assert.assertEquals(10, unit.getCapacity().getBytes());
+        unit.dispose();
+        
+        final FileSystemStore restarted = unit();
+        restarted.setTrackCapacity(true);
+        restarted.initialize();
+        final StoreCapacity capacity = restarted.getCapacity();
+        Assert.assertTrue(capacity.isReconciled());
+        Assert.assertEquals(1, capacity.getObjects());
+        Assert.assertEquals(10, capacity.getBytes());
+        restarted.delete(second);
+        restarted.dispose();
+    }
+    
+    /**
+     * Tests creating blobs from files, which are transferred by the kernel,
+     * and from plain streams using small buffers.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void ingest() throws IOException {
+        final FileSystemStore unit = unit();
+        unit.setBufferSize(1024);
+        final byte[] data = new byte[200000];
+        new Random(42).nextBytes(data);
+        final File source = new File(directory.getParentFile(), "source");
+        FileUtils.writeByteArrayToFile(source, data);
+        try {
+            final FileInputStream stream = new FileInputStream(source);
+            final String identifier;
+            try {
+                Assert.assertEquals(1000, stream.skip(1000));
+                identifier = unit.create(stream);
+            } finally {
+                stream.close();
+            }
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length),
+                IOUtils.toByteArray(unit.read(identifier)));
+            unit.delete(identifier);
+        } finally {
+            FileUtils.forceDelete(source);
+        }
+        
+        final String identifier = unit.create(new ByteArrayInputStream(data));
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(unit.read(identifier)));
+        unit.delete(identifier);
+    }
+    
+    /**
+     * Tests importing files and copying blobs without rewriting their content.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void importAndCopy() throws IOException {
+        final FileSystemStore unit = unit();
+        // uploads arrive outside of the store, on the same file system
+        final File uploads = Files.createTempDirectory("uploads").toFile();
+        try {
+            final File upload = new File(uploads, "upload");
+            FileUtils.writeByteArrayToFile(upload, new byte[] {1, 2, 3});
+            
+            unit.importFile(upload.toPath(), "imported");
+            Assert.assertFalse(upload.exists());
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, IOUtils.toByteArray(unit.read("imported")));
+            
+            FileUtils.writeByteArrayToFile(upload, new byte[] {4});
+            try {
+                unit.importFile(upload.toPath(), "imported");
+                Assert.fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(upload.exists());
+            }
+            FileUtils.forceDelete(upload);
+            
+            unit.copy("imported", "copied");
+            Assert.assertEquals(Sets.newHashSet("imported", "copied"), unit.list());
+            unit.delete("imported");
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, IOUtils.toByteArray(unit.read("copied")));
+            unit.delete("copied");
+        } finally {
+            FileUtils.deleteDirectory(uploads);
+        }
+        Assert.assertEquals(0, directory.list().length);
+    }
+    
+    /**
+     * Tests that a restart keeps a file which was moved into staging by an import
+     * which did not complete, while incomplete writes are removed.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void interruptedImport() throws IOException {
+        final File staging = new File(directory, FileSystemStore.STAGING);
+        final File adopted = new File(staging, "adopted" + FileSystemStore.IMPORT_SUFFIX);
+        final File incomplete = new File(staging, "incomplete.tmp");
+        FileUtils.writeByteArrayToFile(adopted, new byte[] {1, 2, 3});
+        FileUtils.writeByteArrayToFile(incomplete, new byte[] {4});
+        
+        final FileSystemStore restarted = unit();
+        Assert.assertTrue(adopted.exists());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, FileUtils.readFileToByteArray(adopted));
+        Assert.assertFalse(incomplete.exists());
+        Assert.assertEquals(Collections.emptySet(), restarted.list());
+        FileUtils.forceDelete(staging);
+    }
+    
+    /**
+     * Tests owners in the forms {@code user:group} and {@code user} and that dots are
+     * part of the user name instead of separating the group.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void unixOwner() throws IOException {
+        final Path file = Files.createTempFile("unix", null);
+        try {
+            final PosixFileAttributes current = Files.readAttributes(file, PosixFileAttributes.class);
+            final String user = current.owner().getName();
+            final String group = current.group().getName();
+            final FileSystem fileSystem = file.getFileSystem();
+            
+            UnixAttributes.of(fileSystem, user + ":" + group, null).apply(file);
+            Assert.assertEquals(current.owner(), Files.getOwner(file));
+            Assert.assertEquals(current.group(), Files.readAttributes(file, PosixFileAttributes.class).group());
+            
+            final UnixAttributes bare = UnixAttributes.of(fileSystem, user, null);
+            Assert.assertFalse(bare.isEmpty());
+            bare.apply(file);
+            Assert.assertEquals(current.owner(), Files.getOwner(file));
+            
+            try {
+                UnixAttributes.of(fileSystem, user + "." + group, null);
+                Assert.fail("Expected the dotted name to be looked up as a single user");
+            } catch (UserPrincipalNotFoundException e) {
+                Assert.assertEquals(user + "." + group, e.getName());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    /**
+     * Tests permissions in octal and symbolic notation and the rejection of malformed ones.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void unixPermissions() throws IOException {
+        final Path file = Files.createTempFile("unix", null);
+        try {
+            final FileSystem fileSystem = file.getFileSystem();
+            final Set<PosixFilePermission> expected = PosixFilePermissions.fromString("rw-r-----");
+            
+            UnixAttributes.of(fileSystem, null, "0777").apply(file);
+            UnixAttributes.of(fileSystem, null, "0640").apply(file);
+            Assert.assertEquals(expected, Files.getPosixFilePermissions(file));
+            
+            UnixAttributes.of(fileSystem, null, "0777").apply(file);
+            UnixAttributes.of(fileSystem, null, "rw-r-----").apply(file);
+            Assert.assertEquals(expected, Files.getPosixFilePermissions(file));
+            
+            for (String malformed : Arrays.asList("", "999", "01000", "-1", "rw-r----x-", "rw-r---z-", "rwx")) {
+                try {
+                    UnixAttributes.of(fileSystem, null, malformed);
+                    Assert.fail("Expected " + malformed + " to be rejected");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    private static void awaitDeleted(File file) throws InterruptedException {
+        for (int i = 0; i < 100 && file.exists(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(file + " has not been reaped", file.exists());
+    }
+    
 }